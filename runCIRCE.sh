@@ -6,11 +6,12 @@ CIRCE_DIR="/home/david/BCEMSync/04_Algoritmos/01_proyecto_circRNA/CIRCE";
 #Reference genome of the organism
 REF_GENOME="/home/david/Homo_sapiens_chr1.fa";
 
-#Input BAM file with RNA-seq data
+#Input BAM or CRAM file with RNA-seq data. CRAM read from standard input must be sorted by coordinate and is decoded with REF_GENOME
+#Use - to read the unsorted output of the aligner from standard input, e.g. bwa mem ${REF_GENOME} R1.fq R2.fq | java ... circe.main.CIRCE - ${REF_GENOME}
 BAM_FILE="/home/david/chr1_BWA_SRR445016_GRCH38_coord_sorted.bam";
 
-#Log output name
+#Log output name. The progress of the run is refreshed in logs/${OUTPUT_NAME}.status.json and the predictions are also written in binary format to logs/${OUTPUT_NAME}.circbin
 OUTPUT_NAME="Final_verification";
 
 #Running the program
-java -d64 -Xmx14g -javaagent:${CIRCE_DIR}/lib/classmexer.jar -cp "${CIRCE_DIR}/lib/NGSEPcore_3.1.1.jar:${CIRCE_DIR}/bin" circe.main.CIRCE ${BAM_FILE} ${REF_GENOME} 1>${CIRCE_DIR}/logs/${OUTPUT_NAME}.circ 2> ${CIRCE_DIR}/logs/${OUTPUT_NAME}.log;
\ No newline at end of file
+java -d64 -Xmx14g -javaagent:${CIRCE_DIR}/lib/classmexer.jar -cp "${CIRCE_DIR}/lib/htsjdk-2.13.2-4-g80122b9-SNAPSHOT.jar:${CIRCE_DIR}/lib/commons-compress-1.4.1.jar:${CIRCE_DIR}/lib/NGSEPcore_3.1.1.jar:${CIRCE_DIR}/bin" circe.main.CIRCE ${BAM_FILE} ${REF_GENOME} ${CIRCE_DIR}/logs/${OUTPUT_NAME}.status.json ${CIRCE_DIR}/logs/${OUTPUT_NAME}.circbin 1>${CIRCE_DIR}/logs/${OUTPUT_NAME}.circ 2> ${CIRCE_DIR}/logs/${OUTPUT_NAME}.log;
\ No newline at end of file
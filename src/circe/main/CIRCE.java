@@ -1,15 +1,20 @@
 package circe.main;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,6 +25,7 @@ import ngsep.genome.ReferenceGenome;
 import com.javamex.classmexer.MemoryUtil;
 
 import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
@@ -27,12 +33,13 @@ import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 
 /**
  * Software to perform annotation independent detection of circular RNAs. 
  * @author Andrea Borbón and David Ayala Usma
- * REQUIRES A BAM FILE FROM A PAIRED-END RNA-Seq EXPERIMENT  
+ * REQUIRES A BAM OR CRAM FILE FROM A PAIRED-END RNA-Seq EXPERIMENT  
  */
 
 public class CIRCE {
@@ -46,6 +53,24 @@ public class CIRCE {
 	public static final int MAX_ALLOWED_ALNS = 3;
 	public static final int SPLICING_SIGNAL_TOLERANCE_WINDOW = 5;
 	public static final int JUNCTION_BOUNDARY_COORDINATE_TOLERANCE_WINDOW = 20;
+	public static final String [] UMI_TAGS = {"RX", "MI"};
+	public static final String STANDARD_INPUT = "-";
+	
+	//Packed codes of the bases and splicing motifs used by the coordinates refining.
+	private static final byte [] BASE_CODES = new byte[128];
+	static 
+	{
+		Arrays.fill(BASE_CODES, (byte) 4);
+		BASE_CODES['A'] = BASE_CODES['a'] = 0;
+		BASE_CODES['C'] = BASE_CODES['c'] = 1;
+		BASE_CODES['G'] = BASE_CODES['g'] = 2;
+		BASE_CODES['T'] = BASE_CODES['t'] = 3;
+	}
+	private static final int MOTIF_AG = packMotif("AG");
+	private static final int MOTIF_GT = packMotif("GT");
+	private static final int MOTIF_AC = packMotif("AC");
+	private static final int MOTIF_CT = packMotif("CT");
+	private static final int NO_SIGNAL = Integer.MIN_VALUE;
 	
 	//------------------------------------------------------------------------
 	// Attributes
@@ -59,13 +84,53 @@ public class CIRCE {
 	/**
 	 * Number of stored alignments so far
 	 */
-	private int storedAlignments;
+	private long storedAlignments;
 	
 	/**
 	 * Reference genome of the organism
 	 */
 	private ReferenceGenome refGenome;
 	
+	/**
+	 * True if the records of each read are consecutive in the input, so every read is filtered as soon as its records are read
+	 */
+	private boolean queryGroupedInput;
+	
+	/**
+	 * Fingerprints of the read names whose group was closed with stored alignments, used to detect inputs that are not grouped by read
+	 */
+	private LongIntHashMap closedReads;
+	
+	/**
+	 * Path of the machine readable status file or null if it is not requested
+	 */
+	private String statusFile;
+	
+	/**
+	 * Progress of the run
+	 */
+	private ProgressTracker progress;
+	
+	/**
+	 * Unique molecular identifiers of the reads that carry one
+	 */
+	private HashMap<String, String> readUMIs;
+	
+	/**
+	 * Number of duplicate reads collapsed into each representative read. Reads without duplicates are not stored
+	 */
+	private HashMap<String, Integer> readWeights;
+	
+	/**
+	 * Dictionary of the names of the reference sequences of the predicted circRNAs
+	 */
+	private NamesDictionary sequenceNames;
+	
+	/**
+	 * Dictionary of the names of the junction reads that support the predicted circRNAs
+	 */
+	private NamesDictionary readNames;
+	
 	/**
 	 * 
 	 */
@@ -77,7 +142,8 @@ public class CIRCE {
 	
 	/**
 	 * Main method to run the program
-	 * @param args Array with one element, the path to the alignments file
+	 * @param args Array with the path to the alignments file, or - to read it from standard input, the path to the reference genome
+	 * and optionally the path of a status file that is refreshed with the progress of the run and the path of a binary file for the predictions
 	 * @throws Exception If the file can not be read
 	 */
 	public static void main(String[] args) throws Exception {
@@ -86,18 +152,29 @@ public class CIRCE {
 		System.err.println("[" + instance.getTimeStamp() + "]" + " Run started." );
 		System.err.println("[" + instance.getTimeStamp() + "]" + " Loading reference genome." );
 		instance.refGenome = new ReferenceGenome(args[1]);
-		System.err.println("[" + instance.getTimeStamp() + "]" + " Scanning BAM file." );
+		instance.statusFile = args.length > 2 ? args[2] : null;
+		System.err.println("[" + instance.getTimeStamp() + "]" + " Scanning alignments file." );
 		instance.storedAlignments = 0;
 		instance.alignments = new HashMap<String, ArrayList<ReadAlignment>>();
+		instance.readUMIs = new HashMap<String, String>();
+		instance.readWeights = new HashMap<String, Integer>();
 		instance.processAlignmentsFile(args[0]);
+		if(args.length > 3)
+		{
+			instance.getPredictions().write(args[3]);
+		}
 		instance.printOutput();
+		instance.progress.setStage(ProgressTracker.STAGE_FINISHED);
 		System.err.println("");
 		System.err.println("[" + instance.getTimeStamp() + "]" + " Run finished." );
 	}
 
 	/**
-	 * Read processor of the CIRCE algorithm
-	 * @param filename Path to the BAM file to process
+	 * Read processor of the CIRCE algorithm. Inputs sorted or grouped by read name, and unsorted standard input or named pipes as
+	 * written by the aligners, are processed in query grouped mode: the records of each read must be consecutive and each read is 
+	 * filtered when its last record is read, so only the junction read candidates are kept in memory. Coordinate sorted inputs and
+	 * unsorted files on disk keep all the alignments with PCC signals until the end of the scan. 
+	 * @param filename Path to the SAM, BAM or CRAM file to process, or - to read from standard input
 	 * @throws IOException If the file cannot be read
 	 */
 	public void processAlignmentsFile(String filename) throws IOException {		
@@ -108,20 +185,57 @@ public class CIRCE {
 		
 		try 
 		{
-			//Creating the alignment file reader.
-			reader = SamReaderFactory.makeDefault().open(new File(filename));
+			//Creating the alignment file reader. CRAM files are decoded against the reference genome already loaded.
+			//Regular files are read through a seekable stream whose position tells how much of the file has been scanned.
+			SeekableStream alignmentsStream = null;
+			if(!STANDARD_INPUT.equals(filename) && new File(filename).isFile())
+			{
+				alignmentsStream = new SeekableFileStream(new File(filename));
+			}
+			reader = openAlignmentsReader(filename, alignmentsStream);
+			SAMFileHeader header = reader.getFileHeader();
 			
-			//Creating the temporary output file and the alignment file writer.
-			String tmpFilePath = System.getProperty("user.dir");
-			File tmpBAMFile = new File(tmpFilePath + "tmp.bam");
-			BAMWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(reader.getFileHeader(), true, tmpBAMFile); 
+			//CRAM streams are decoded against a reference source that keeps only the current sequence, so they must visit the sequences one after the other.
+			if(reader.type() == SamReader.Type.CRAM_TYPE && alignmentsStream == null && header.getSortOrder() != SAMFileHeader.SortOrder.coordinate)
+			{
+				throw new IOException("CRAM input " + filename + " read as a stream must be sorted by coordinate. Sort order found: " + header.getSortOrder());
+			}
+			progress = new ProgressTracker(filename, alignmentsStream != null ? alignmentsStream.length() : -1, statusFile);
 			
-			//Creating the iterator for the alignment file. 
-			Iterator<SAMRecord> it = reader.iterator();
+			//Files sorted or grouped by read name have the records of each read together. Unsorted streams are assumed to be aligner output,
+			//which is grouped by read name as well. Unsorted files on disk are not assumed to be grouped and go through the alignments map.
+			queryGroupedInput = header.getSortOrder() == SAMFileHeader.SortOrder.queryname || header.getGroupOrder() == SAMFileHeader.GroupOrder.query
+					|| (header.getSortOrder() == SAMFileHeader.SortOrder.unsorted && alignmentsStream == null);
+			closedReads = queryGroupedInput ? new LongIntHashMap(1024) : null;
+			
+			//Creating the temporary output file and the alignment file writer. Streams are not copied to disk.
+			if(!queryGroupedInput && alignmentsStream != null)
+			{
+				String tmpFilePath = System.getProperty("user.dir");
+				File tmpBAMFile = new File(tmpFilePath + "tmp.bam");
+				BAMWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, tmpBAMFile); 
+			}
+			else if(queryGroupedInput)
+			{
+				System.err.println("[" + getTimeStamp() + "]" + " Reading alignments grouped by read name. Each read is filtered after its last record." );
+			}
+			
+			//Creating the iterator for the alignment file. CRAM files are read without rebuilding the bases and qualities, which the filters do not use.
+			Iterator<SAMRecord> it;
+			if(reader.type() == SamReader.Type.CRAM_TYPE && alignmentsStream != null)
+			{
+				alignmentsStream.seek(0);
+				it = new CRAMAlignmentsIterator(new BufferedInputStream(alignmentsStream));
+			}
+			else
+			{
+				it = reader.iterator();
+			}
 			
 			//Counters for analyzed and saved alignments.
-			int alignmentCounter = 1;
-			int compliantAlignments = 0;
+			long alignmentCounter = 0;
+			long compliantAlignments = 0;
+			String currentReadName = null;
 			
 			//Reading the alignment file.			
 			while (it.hasNext()) 
@@ -129,6 +243,16 @@ public class CIRCE {
 				//Recovers the next element.
 				SAMRecord aln = it.next();
 				
+				//A new read name closes the records of the previous read in query grouped mode.
+				if(queryGroupedInput && !aln.getReadName().equals(currentReadName))
+				{
+					if(currentReadName != null)
+					{
+						filterCompletedRead(currentReadName);
+					}
+					currentReadName = aln.getReadName();
+				}
+				
 				//Looking for PCC signals in the alignments.
 				if(!aln.getReadUnmappedFlag() && !aln.isSecondaryOrSupplementary() &&  aln.getCigarLength() > 1)
 				{	
@@ -138,63 +262,261 @@ public class CIRCE {
 					if((aln.getCigar().isLeftClipped() && firstElementLength >= CLIPPING_THRESHOLD) 
 					   || (aln.getCigar().isRightClipped() && lastElementLength >= CLIPPING_THRESHOLD)) 
 					{
+						//A read stored again after its group was closed means that the input is not grouped by read name.
+						if(queryGroupedInput && closedReads.get(getStringFingerprint(aln.getReadName())) != LongIntHashMap.NO_VALUE)
+						{
+							throw new IOException("Alignments of read " + aln.getReadName() + " are not consecutive in " + filename 
+									+ ". Inputs with sort order " + header.getSortOrder() + " must have the records of each read together."
+									+ " Sort the alignments by read name (samtools sort -n) or by coordinate (samtools sort) and run CIRCE again.");
+						}
+						
 						//If the alignment presents PCC signals, it is stored in the temporary file and the count increases.
-						BAMWriter.addAlignment(aln);												
+						if(BAMWriter != null)
+						{
+							BAMWriter.addAlignment(aln);
+						}
+						storeAlignment(aln);
 						compliantAlignments++;
 					}
 				}
 				
-				//Counts the number of processed alignments and reports the progress and memory usage per each 1.000.000 alignments.
+				//Counts the number of processed alignments and reports the progress and memory usage when the report interval has elapsed.
 				alignmentCounter++;
 				
-				if(alignmentCounter % 1000000 == 0)
+				if((alignmentCounter & ProgressTracker.CHECK_MASK) == 0 && progress.isReportDue())
 				{
-					DecimalFormat formatter = new DecimalFormat("###,###,###,###,###"); 
-					String lineOutput = formatter.format(alignmentCounter);
+					progress.update(alignmentCounter, compliantAlignments, alignmentsStream != null ? alignmentsStream.position() : -1);
 					long memoryUsage = MemoryUtil.deepMemoryUsageOf(this) / 1048576;
-					String storedAlns = formatter.format(compliantAlignments);
-					System.err.println("[" + getTimeStamp() + "] " + lineOutput +" alignments processed - " + storedAlns + " alignments stored - " + memoryUsage + " MB of RAM used.");
+					System.err.println("[" + getTimeStamp() + "] " + progress.getProgressLine() + " - " + memoryUsage + " MB of RAM used.");
 				}
 				
 			}
 			
+			//Filtering the last read of the stream.
+			if(currentReadName != null)
+			{
+				filterCompletedRead(currentReadName);
+			}
+			
 			//Sets the final number of alignments that complied with the filters.
 			storedAlignments = compliantAlignments;
+			progress.update(alignmentCounter, compliantAlignments, alignmentsStream != null ? alignmentsStream.length() : -1);
 		} 
 		
 		finally {
 			
-			if(reader != null || BAMWriter != null) 
+			if(reader != null) 
 			{
 				reader.close();
+			}
+			
+			if(BAMWriter != null)
+			{
 				BAMWriter.close();
 			}
 		}
 		
 		//Removing the unique alignments that complied with the previous conditions.
+		progress.setStage("unique alignments filtering");
 		removeUniqueAlignments();
 		
 		//Sorting the ArrayLists of read alignments in the HashMap.
+		progress.setStage("alignments sorting");
 		sortingListsInAlignmentsMap();
 		
 		//Verifying distance and CIGAR criteria.
+		progress.setStage("distance and CIGAR filtering");
 		filterAlignmentsByMaxDistanceAndCigar();
 		
 		//Filtering the junction read candidates by the location of their mate pairs.
+		progress.setStage("mate location filtering");
 		filterByMatePairLocation();
 		
 		//Filtering by splicing signals.
+		progress.setStage("splicing signal filtering");
 		filterBySplicingSignals();
 		
+		//Collapsing the PCR duplicates of the junction reads that passed all the filters.
+		progress.setStage("duplicates collapsing");
+		removeDuplicateJunctionReads();
+		
 		//Perform the circular RNA prediction with the filtered reads.
+		progress.setStage("circRNA prediction");
 		predictCircularRNAs();
 		
+		//Moving the junctions to the closest splicing signals.
+		progress.setStage("coordinate refining");
+		refiningCoordinates();
+		
 		//Final results
+		progress.setStage("output");
 		recordNumberOfPredictedCircRNAs();
 		
 	}
 	
 	
+	/**
+	 * Creates the factory of alignment file readers. The loaded reference genome is used as the CRAM reference source and
+	 * invalid records are reported as warnings instead of stopping the scan.
+	 * @return SamReaderFactory - Factory for SAM, BAM and CRAM readers
+	 */
+	public SamReaderFactory createAlignmentsReaderFactory()
+	{
+		return SamReaderFactory.makeDefault()
+				.referenceSource(new ReferenceGenomeCRAMSource(refGenome))
+				.validationStringency(ValidationStringency.LENIENT);
+	}
+	
+	
+	/**
+	 * Opens the alignments reader. Standard input and named pipes are read as streams because they cannot be reopened or sought.
+	 * @param filename Path to the SAM, BAM or CRAM file, or - to read from standard input
+	 * @param alignmentsStream Seekable stream already opened on the file, or null to open the file by name
+	 * @return SamReader - Reader of the alignments
+	 * @throws IOException If the file cannot be opened
+	 */
+	public SamReader openAlignmentsReader(String filename, SeekableStream alignmentsStream) throws IOException
+	{
+		SamReaderFactory factory = createAlignmentsReaderFactory();
+		
+		if(alignmentsStream != null)
+		{
+			return factory.open(SamInputResource.of(alignmentsStream));
+		}
+		
+		if(STANDARD_INPUT.equals(filename))
+		{
+			return factory.open(SamInputResource.of(new BufferedInputStream(System.in)));
+		}
+		
+		File file = new File(filename);
+		if(!file.isFile())
+		{
+			return factory.open(SamInputResource.of(new BufferedInputStream(new FileInputStream(file))));
+		}
+		
+		return factory.open(file);
+	}
+	
+	/**
+	 * Applies the unique alignments, distance, CIGAR, mate and splicing signal filters to a read whose records have all been read.
+	 * Reads that are not junction read candidates are released immediately.
+	 * @param readName Name of the read
+	 */
+	public void filterCompletedRead(String readName)
+	{
+		ArrayList<ReadAlignment> readAlignments = alignments.get(readName);
+		if(readAlignments == null)
+		{
+			return;
+		}
+		closedReads.putIfAbsent(getStringFingerprint(readName), 0);
+		
+		boolean candidate = readAlignments.size() > 1;
+		if(candidate)
+		{
+			sorterByCoordinate(readAlignments);
+			candidate = compliesMaxDistanceAndCigar(readAlignments) && compliesMatePairLocation(readAlignments) && compliesSplicingSignals(readAlignments);
+		}
+		
+		if(!candidate)
+		{
+			alignments.remove(readName);
+			readUMIs.remove(readName);
+		}
+	}
+	
+	/**
+	 * Stores an alignment with PCC signals in the alignments HashMap with the fields used by the filters.
+	 * @param aln Alignment to store
+	 */
+	public void storeAlignment(SAMRecord aln)
+	{
+		String readName = aln.getReadName();
+		ReadAlignment readAlignment = new ReadAlignment(aln.getReferenceName(), aln.getAlignmentStart(), aln.getAlignmentEnd(), aln.getCigar().getReadLength(), aln.getFlags());
+		readAlignment.setReadName(readName);
+		readAlignment.setCigarString(aln.getCigarString());
+		readAlignment.setMateSequenceName(aln.getMateReferenceName());
+		readAlignment.setMateFirst(aln.getMateAlignmentStart());
+		
+		ArrayList<ReadAlignment> readAlignments = alignments.get(readName);
+		if(readAlignments == null)
+		{
+			readAlignments = new ArrayList<ReadAlignment>(2);
+			alignments.put(readName, readAlignments);
+		}
+		readAlignments.add(readAlignment);
+		
+		//Keeping the molecular identifier only for the reads that carry one
+		for (String umiTag : UMI_TAGS) 
+		{
+			Object umi = aln.getAttribute(umiTag);
+			if(umi != null)
+			{
+				readUMIs.put(readName, umi.toString());
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Collapses the reads that are PCR duplicates of each other into one representative read weighted by the number of copies.
+	 * Two reads are duplicates if their alignments share sequence, unclipped positions, strand and mate position, or if they share
+	 * the unique molecular identifier at the same unclipped positions. Each read is reduced to a 64-bit fingerprint of those fields.
+	 * Runs after the filters, so every member of a group of duplicates is a valid junction read and the choice of representative
+	 * does not change the prediction.
+	 */
+	public void removeDuplicateJunctionReads()
+	{
+		//Verbose response
+		System.err.println("[" + getTimeStamp() + "]" + " Splicing signal filtering finished. Starting the duplicate junction reads collapsing." );
+		
+		ArrayList<String> representativeReads = new ArrayList<String>();
+		int [] copies = new int[16];
+		LongIntHashMap fingerprints = new LongIntHashMap(alignments.size());
+		int duplicates = 0;
+		
+		Iterator<Map.Entry<String, ArrayList<ReadAlignment>>> iterator = alignments.entrySet().iterator();
+		while (iterator.hasNext()) 
+		{
+			Map.Entry<String, ArrayList<ReadAlignment>> currentRead = iterator.next();
+			long fingerprint = getDuplicateFingerprint(currentRead.getValue(), readUMIs.get(currentRead.getKey()));
+			int representative = fingerprints.putIfAbsent(fingerprint, representativeReads.size());
+			
+			if(representative == LongIntHashMap.NO_VALUE)
+			{
+				if(representativeReads.size() == copies.length)
+				{
+					copies = Arrays.copyOf(copies, 2 * copies.length);
+				}
+				copies[representativeReads.size()] = 1;
+				representativeReads.add(currentRead.getKey());
+			}
+			else
+			{
+				copies[representative]++;
+				readUMIs.remove(currentRead.getKey());
+				iterator.remove();
+				duplicates++;
+			}
+		}
+		
+		//Storing the weights of the representatives that absorbed duplicates
+		for (int i = 0; i < representativeReads.size(); i++) 
+		{
+			if(copies[i] > 1)
+			{
+				readWeights.put(representativeReads.get(i), copies[i]);
+			}
+		}
+		
+		//The molecular identifiers are not used after this point
+		readUMIs.clear();
+		
+		DecimalFormat formatter = new DecimalFormat("###,###,###,###,###");
+		System.err.println("[" + getTimeStamp() + "] " + formatter.format(duplicates) + " duplicate junction reads collapsed into " + formatter.format(readWeights.size()) + " reads.");
+	}
+	
 	/**
 	 * Method that remove those alignments that appear only once in the current alignments ArrayList.
 	 */
@@ -216,7 +538,7 @@ public class CIRCE {
 		//Creation of the iterator through the whole HashMap and alignments tracking 
 		Set<Map.Entry<String, ArrayList<ReadAlignment>>> entries = alignments.entrySet();
 		Iterator<Map.Entry<String, ArrayList<ReadAlignment>>> iterator = entries.iterator();
-		int counter = 0;
+		long counter = 0;
 		
 		//Removing the reads that only have one element
 		while (iterator.hasNext()) 
@@ -273,50 +595,57 @@ public class CIRCE {
 		{
 			//Recovering the alignments
 			Map.Entry<String, ArrayList<ReadAlignment>> currentRead = iterator.next();
-			ArrayList<ReadAlignment> currentReadAlignments = currentRead.getValue();
 			
-			//Distance and number of alignments calculation
-			int numberAlignments = currentReadAlignments.size();
-			ReadAlignment firstAln = currentReadAlignments.get(0);
-			ReadAlignment lastAln = currentReadAlignments.get(numberAlignments - 1);
-			int distanceFirstLastAlns = 0;
-						
-			//Strand sense verification
-			if(firstAln.isPositiveStrand() && lastAln.isPositiveStrand())
-			{
-				distanceFirstLastAlns = lastAln.getFirst() - firstAln.getFirst();				
-			}
-			
-			else if(firstAln.isNegativeStrand() && lastAln.isNegativeStrand())
-			{
-				distanceFirstLastAlns = lastAln.getLast() - firstAln.getLast();
-			}
-
-			//Distance and alignment number filtering
-			if(numberAlignments > MAX_ALLOWED_ALNS || distanceFirstLastAlns > MAX_DISTANCE_ALNS)
+			if(!compliesMaxDistanceAndCigar(currentRead.getValue()))
 			{
 				iterator.remove();
 			}
-			
-			//CIGAR verification
-			else {
-				int firstAlnNumOperators = firstAln.getNumCigarItems();
-				int lastAlnNumOperators = lastAln.getNumCigarItems();
-				
-				int firstAlnCigarOperator = firstAln.getCigarItemOperator(0);
-				int lastAlnCigarOperator = lastAln.getCigarItemOperator(lastAln.getNumCigarItems() - 1);
-				
-				//If the read does not comply with the conditions that the Leftmost alignment CIGAR == H/S AND Rightmost alignment CIGAR == H/S, it must be removed. 
-				if((firstAlnNumOperators > 2 || lastAlnNumOperators > 2) || 
-					!((firstAlnCigarOperator == ReadAlignment.ALIGNMENT_HARDCLIP || firstAlnCigarOperator == ReadAlignment.ALIGNMENT_SKIPFROMREAD) 
-					&& (lastAlnCigarOperator == ReadAlignment.ALIGNMENT_HARDCLIP || lastAlnCigarOperator == ReadAlignment.ALIGNMENT_SKIPFROMREAD)))
-				{
-					iterator.remove();
-				}
-			}
 		}
 	}
 	
+	/**
+	 * Verifies the maximum distance, maximum number of alignments and CIGAR structure of the alignments of a read.
+	 * @param currentReadAlignments Alignments of the read sorted by coordinate
+	 * @return boolean - True if the read complies with the criteria
+	 */
+	public boolean compliesMaxDistanceAndCigar(ArrayList<ReadAlignment> currentReadAlignments)
+	{
+		//Distance and number of alignments calculation
+		int numberAlignments = currentReadAlignments.size();
+		ReadAlignment firstAln = currentReadAlignments.get(0);
+		ReadAlignment lastAln = currentReadAlignments.get(numberAlignments - 1);
+		int distanceFirstLastAlns = 0;
+					
+		//Strand sense verification
+		if(firstAln.isPositiveStrand() && lastAln.isPositiveStrand())
+		{
+			distanceFirstLastAlns = lastAln.getFirst() - firstAln.getFirst();				
+		}
+		
+		else if(firstAln.isNegativeStrand() && lastAln.isNegativeStrand())
+		{
+			distanceFirstLastAlns = lastAln.getLast() - firstAln.getLast();
+		}
+
+		//Distance and alignment number filtering
+		if(numberAlignments > MAX_ALLOWED_ALNS || distanceFirstLastAlns > MAX_DISTANCE_ALNS)
+		{
+			return false;
+		}
+		
+		//CIGAR verification
+		int firstAlnNumOperators = firstAln.getNumCigarItems();
+		int lastAlnNumOperators = lastAln.getNumCigarItems();
+		
+		int firstAlnCigarOperator = firstAln.getCigarItemOperator(0);
+		int lastAlnCigarOperator = lastAln.getCigarItemOperator(lastAln.getNumCigarItems() - 1);
+		
+		//If the read does not comply with the conditions that the Leftmost alignment CIGAR == H/S AND Rightmost alignment CIGAR == H/S, it must be removed. 
+		return !((firstAlnNumOperators > 2 || lastAlnNumOperators > 2) || 
+			!((firstAlnCigarOperator == ReadAlignment.ALIGNMENT_HARDCLIP || firstAlnCigarOperator == ReadAlignment.ALIGNMENT_SKIPFROMREAD) 
+			&& (lastAlnCigarOperator == ReadAlignment.ALIGNMENT_HARDCLIP || lastAlnCigarOperator == ReadAlignment.ALIGNMENT_SKIPFROMREAD)));
+	}
+	
 	/**
 	 * Filters the reads in the HashMap 
 	 */
@@ -333,19 +662,29 @@ public class CIRCE {
 		{
 			//Recovering the alignments of the current read.
 			Map.Entry<String, ArrayList<ReadAlignment>> currentRead = iterator.next();
-			ArrayList<ReadAlignment> currentReadAlignments = currentRead.getValue();
-			int numberOfAlignments = currentReadAlignments.size();
-			ReadAlignment firstAlignment = currentReadAlignments.get(0);
-			ReadAlignment lastAlignment = currentReadAlignments.get(numberOfAlignments - 1);
 			
-			//Verification of the mate position
-			if(!(firstAlignment.isPaired() && lastAlignment.isPaired() && firstAlignment.getFirst() < firstAlignment.getMateFirst() && lastAlignment.getFirst() > lastAlignment.getMateFirst()))
+			if(!compliesMatePairLocation(currentRead.getValue()))
 			{
 				iterator.remove();
 			}
 		}
 	}
 	
+	/**
+	 * Verifies that the mates of the leftmost and rightmost alignments of a read are located inside the junction.
+	 * @param currentReadAlignments Alignments of the read sorted by coordinate
+	 * @return boolean - True if the read complies with the criteria
+	 */
+	public boolean compliesMatePairLocation(ArrayList<ReadAlignment> currentReadAlignments)
+	{
+		int numberOfAlignments = currentReadAlignments.size();
+		ReadAlignment firstAlignment = currentReadAlignments.get(0);
+		ReadAlignment lastAlignment = currentReadAlignments.get(numberOfAlignments - 1);
+		
+		//Verification of the mate position
+		return firstAlignment.isPaired() && lastAlignment.isPaired() && firstAlignment.getFirst() < firstAlignment.getMateFirst() && lastAlignment.getFirst() > lastAlignment.getMateFirst();
+	}
+	
 	public void filterBySplicingSignals()
 	{
 		//Notification to user
@@ -359,74 +698,89 @@ public class CIRCE {
 		{
 			//Recovering the alignments of the current read.
 			Map.Entry<String, ArrayList<ReadAlignment>> currentRead = iterator.next();
-			ArrayList<ReadAlignment> currentReadAlignments = currentRead.getValue();
-			int numberOfAlignments = currentReadAlignments.size();
-			ReadAlignment firstAln = currentReadAlignments.get(0);
-			ReadAlignment lastAln = currentReadAlignments.get(numberOfAlignments - 1);
-			
-			int firstAlnLastPos = firstAln.getLast();
-			int lastAlnFirstPos = lastAln.getFirst();
 			
-			if(firstAln.getSequenceName().equals(lastAln.getSequenceName()))
-			{
-				String sequenceName = firstAln.getSequenceName();
-				
-				StringBuilder acceptorSite = new StringBuilder(); 
-				StringBuilder donorSite = new StringBuilder();
-				
-				//Recovering the sequence for the splicing tolerance window
-				for (int i = 1; i <= SPLICING_SIGNAL_TOLERANCE_WINDOW; i++) 
-				{
-					donorSite.append(refGenome.getReferenceBase(sequenceName, firstAlnLastPos + i));
-					acceptorSite.append(refGenome.getReferenceBase(sequenceName, (lastAlnFirstPos - SPLICING_SIGNAL_TOLERANCE_WINDOW - 1) + i));
-				}
-					
-				String acceptorSiteWindow = acceptorSite.toString();
-				String donorSiteWindow = donorSite.toString();
-				
-				//Verify strand-specific splicing signals in the reads
-				if(firstAln.isPositiveStrand() && lastAln.isPositiveStrand())
-				{
-					if(!(acceptorSiteWindow.contains("AG") && donorSiteWindow.contains("GT")))
-					{
-						iterator.remove();	
-					}
-				}
-				
-				else if (firstAln.isNegativeStrand() && lastAln.isNegativeStrand())
-				{
-					if(!(acceptorSiteWindow.contains("AC") && donorSiteWindow.contains("CT")))
-					{
-						iterator.remove();
-					}
-				}
-				
-				else
-				{
-					iterator.remove();
-				}
-			}
-
-			else
+			if(!compliesSplicingSignals(currentRead.getValue()))
 			{
 				iterator.remove();
 			}
 		}	
 	}
 	
+	/**
+	 * Verifies the strand-specific splicing signals around the junction of a read.
+	 * @param currentReadAlignments Alignments of the read sorted by coordinate
+	 * @return boolean - True if the splicing signals are found
+	 */
+	public boolean compliesSplicingSignals(ArrayList<ReadAlignment> currentReadAlignments)
+	{
+		int numberOfAlignments = currentReadAlignments.size();
+		ReadAlignment firstAln = currentReadAlignments.get(0);
+		ReadAlignment lastAln = currentReadAlignments.get(numberOfAlignments - 1);
+		
+		int firstAlnLastPos = firstAln.getLast();
+		int lastAlnFirstPos = lastAln.getFirst();
+		
+		if(!firstAln.getSequenceName().equals(lastAln.getSequenceName()))
+		{
+			return false;
+		}
+		
+		String sequenceName = firstAln.getSequenceName();
+		
+		StringBuilder acceptorSite = new StringBuilder(); 
+		StringBuilder donorSite = new StringBuilder();
+		
+		//Recovering the sequence for the splicing tolerance window
+		for (int i = 1; i <= SPLICING_SIGNAL_TOLERANCE_WINDOW; i++) 
+		{
+			donorSite.append(refGenome.getReferenceBase(sequenceName, firstAlnLastPos + i));
+			acceptorSite.append(refGenome.getReferenceBase(sequenceName, (lastAlnFirstPos - SPLICING_SIGNAL_TOLERANCE_WINDOW - 1) + i));
+		}
+			
+		String acceptorSiteWindow = acceptorSite.toString();
+		String donorSiteWindow = donorSite.toString();
+		
+		//Verify strand-specific splicing signals in the reads
+		if(firstAln.isPositiveStrand() && lastAln.isPositiveStrand())
+		{
+			return acceptorSiteWindow.contains("AG") && donorSiteWindow.contains("GT");
+		}
+		
+		else if (firstAln.isNegativeStrand() && lastAln.isNegativeStrand())
+		{
+			return acceptorSiteWindow.contains("AC") && donorSiteWindow.contains("CT");
+		}
+		
+		return false;
+	}
+	
 	public void predictCircularRNAs()
 	{
 		//Notification to user
-		System.err.println("[" + getTimeStamp() + "]" + " Splicing signal filtering finished. circRNA prediction started." );
+		System.err.println("[" + getTimeStamp() + "]" + " Duplicate junction reads collapsing finished. circRNA prediction started." );
 		
 		//Creating the array of CircRNAs and preparing the control structure of the visited reads
 		predictedCircRNAs = new ArrayList<CircRNA>();
+		readNames = new NamesDictionary();
+		
+		//The sequences are indexed in the order of the reference genome, so the sorted outputs of different samples can be merged.
+		sequenceNames = new NamesDictionary();
+		for (String sequenceName : refGenome.getSequenceNamesStringList()) 
+		{
+			sequenceNames.addOrLookup(sequenceName);
+		}
 		Set<String> countedReads = new HashSet<String>();
 		ArrayList<String> allAlignments = new ArrayList<String>(alignments.keySet());
 		int circIDs = 0;
 		
 		for(int i = 0; i < allAlignments.size(); i++)
 		{	
+			//Each read is compared with all the following reads, so the status file is refreshed while the prediction runs.
+			if(progress.isReportDue())
+			{
+				progress.heartbeat();
+			}
+			
 			//Skipping this value if this read has been already counted.
 			String currentRead = allAlignments.get(i);
 			if(countedReads.contains(currentRead))
@@ -446,7 +800,7 @@ public class CIRCE {
 			}
 			
 			//Creation of the circRNA entry
-			CircRNA newCircRNA = new CircRNA("circRNA" + circIDs, currentReferenceSequence, currentStartCoordinate, currentEndCoordinate, currentCodingStrand, 1, currentRead);
+			CircRNA newCircRNA = new CircRNA(circIDs, sequenceNames.addOrLookup(currentReferenceSequence), currentStartCoordinate, currentEndCoordinate, currentCodingStrand, getReadWeight(currentRead), readNames.addOrLookup(currentRead));
 
 			
 			//Looking for the supporting reads and removing them from the 
@@ -494,67 +848,223 @@ public class CIRCE {
 						newCircRNA.setEndCoordinate(inspectedEndCoordinate);
 					}
 					
-					//Adding a support read to the count
-					newCircRNA.setNumberJunctionReadsSupport(newCircRNA.getNumberJunctionReadsSupport() + 1);
-					
-					//Adding a support read name to the count
-					newCircRNA.setNameOfSupportingJunctionReads(inspectedRead);
+					//Adding a support read and its name to the count
+					newCircRNA.addSupportingJunctionRead(readNames.addOrLookup(inspectedRead));
+					newCircRNA.setNumberRawJunctionReadsSupport(newCircRNA.getNumberRawJunctionReadsSupport() + getReadWeight(inspectedRead));
 					
 				}
 				
 			}
 			
 			//Adding the circRNA to the list.
+			newCircRNA.trimSupportingReads();
 			predictedCircRNAs.add(newCircRNA);
 			circIDs++;
 		}
 		
+		//Sorting the predictions by coordinate and numbering them in that order.
+		sortPredictedCircRNAs();
 	}
 	
 	/**
-	 * Refining the splicing junction coordinates using splicing signals 
+	 * Refining the splicing junction coordinates using splicing signals. Each boundary moves to the closest canonical motif
+	 * within the splicing signal tolerance window: AG before the start and GT after the end for the positive strand, AC before the start
+	 * and CT after the end for the negative strand. The circRNAs are processed in batches per reference sequence, in parallel, 
+	 * and sorted by coordinate within each batch so the reference is read sequentially.
 	 */
 	public void refiningCoordinates() 
 	{
 		//Notification to user
 		System.err.println("[" + getTimeStamp() + "]" + " circRNA prediction finished. Coordinate refining started." );
 		
-		for (CircRNA circRNA : predictedCircRNAs) 
+		//Building the batches of circRNAs of each reference sequence. The predictions are already sorted by coordinate.
+		ArrayList<List<CircRNA>> batches = new ArrayList<List<CircRNA>>();
+		int batchStart = 0;
+		for (int i = 1; i <= predictedCircRNAs.size(); i++) 
+		{
+			if(i == predictedCircRNAs.size() || predictedCircRNAs.get(i).getSequenceIndex() != predictedCircRNAs.get(batchStart).getSequenceIndex())
+			{
+				batches.add(predictedCircRNAs.subList(batchStart, i));
+				batchStart = i;
+			}
+		}
+		
+		//Refining the batches in parallel and adding their statistics.
+		RefinementStatistics statistics = batches.parallelStream()
+				.map(this::refineCoordinatesBatch)
+				.reduce(new RefinementStatistics(), RefinementStatistics::add);
+		
+		//The refined boundaries can change the order of close circRNAs.
+		sortPredictedCircRNAs();
+		
+		DecimalFormat formatter = new DecimalFormat("###,###,###,###,###");
+		System.err.println("[" + getTimeStamp() + "] " + formatter.format(statistics.movedJunctions) + " of " + formatter.format(predictedCircRNAs.size()) + " junctions moved (" 
+				+ formatter.format(statistics.movedStarts) + " start and " + formatter.format(statistics.movedEnds) + " end coordinates), " 
+				+ formatter.format(statistics.withoutSignal) + " coordinates without splicing signal in the window.");
+		StringBuilder shifts = new StringBuilder();
+		for (int distance = 1; distance < statistics.shiftDistribution.length; distance++) 
+		{
+			shifts.append(" ").append(distance).append(" bp: ").append(formatter.format(statistics.shiftDistribution[distance])).append(";");
+		}
+		System.err.println("[" + getTimeStamp() + "]" + " Coordinates moved by distance:" + shifts);
+	}
+	
+	/**
+	 * Refines the coordinates of the circRNAs of one reference sequence.
+	 * @param batch circRNAs of the same reference sequence sorted by coordinate
+	 * @return RefinementStatistics - Number of coordinates moved and distances of the moves
+	 */
+	private RefinementStatistics refineCoordinatesBatch(List<CircRNA> batch)
+	{
+		RefinementStatistics statistics = new RefinementStatistics();
+		CharSequence sequence = refGenome.getSequenceCharacters(sequenceNames.getName(batch.get(0).getSequenceIndex()));
+		if(sequence == null)
+		{
+			return statistics;
+		}
+		
+		int [] dinucleotides = new int[2 * SPLICING_SIGNAL_TOLERANCE_WINDOW + 1];
+		for (CircRNA circRNA : batch) 
 		{
-			int leftCoordinate = circRNA.getStartCoordinate();
-			int rightCoordinate = circRNA.getEndCoordinate();
-			char codingStrand = circRNA.getCodingStrand();
-			String sequenceName = circRNA.getNameReferenceSequence();
+			boolean positiveStrand = circRNA.getCodingStrand() == '+';
 			
-			StringBuilder leftSite = new StringBuilder();
-			StringBuilder rightSite = new StringBuilder();
+			//The motif of the start ends right before the first base of the circRNA, and the motif of the end starts right after the last base.
+			//Zero based position of the first motif base for the largest shift upstream.
+			int startShift = findClosestMotifShift(sequence, circRNA.getStartCoordinate() - SPLICING_SIGNAL_TOLERANCE_WINDOW - 3, positiveStrand ? MOTIF_AG : MOTIF_AC, dinucleotides);
+			int endShift = findClosestMotifShift(sequence, circRNA.getEndCoordinate() - SPLICING_SIGNAL_TOLERANCE_WINDOW, positiveStrand ? MOTIF_GT : MOTIF_CT, dinucleotides);
 			
-			//Recovering the sequence for the splicing tolerance window
-			for (int i = 1; i <= SPLICING_SIGNAL_TOLERANCE_WINDOW; i++) 
+			statistics.record(startShift, endShift);
+			if(startShift != NO_SIGNAL)
 			{
-				rightSite.append(refGenome.getReferenceBase(sequenceName, rightCoordinate + i));
-				leftSite.append(refGenome.getReferenceBase(sequenceName, (leftCoordinate - SPLICING_SIGNAL_TOLERANCE_WINDOW - 1) + i));
+				circRNA.setStartCoordinate(circRNA.getStartCoordinate() + startShift);
 			}
-				
-			String leftSiteWindow = leftSite.toString();
-			String rightSiteWindow = rightSite.toString();
-			
-			//Verify strand-specific splicing signals in the reads
-			if(codingStrand == '+')
+			if(endShift != NO_SIGNAL)
 			{
-				int coordinateSignalLeft = leftCoordinate - leftSiteWindow.indexOf("AG") + 2;
-				int coordinateSignalRight = rightCoordinate + rightSiteWindow.indexOf("GT") - 2;
-				circRNA.setStartCoordinate(coordinateSignalLeft);
-				circRNA.setEndCoordinate(coordinateSignalRight);
+				circRNA.setEndCoordinate(circRNA.getEndCoordinate() + endShift);
 			}
-			
-			else
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Finds the shift of a junction boundary that places it at the closest splicing motif. The bases of the window are packed 
+	 * in dinucleotide codes and compared with the motif in a branch free loop.
+	 * @param sequence Reference sequence
+	 * @param windowStart Zero based position of the first base of the motif for the largest shift upstream
+	 * @param motif Packed code of the motif
+	 * @param dinucleotides Buffer for the packed dinucleotides of the window. Its length is the number of possible shifts
+	 * @return int - Shift of the boundary, negative upstream, or NO_SIGNAL if the motif is not in the window
+	 */
+	private static int findClosestMotifShift(CharSequence sequence, int windowStart, int motif, int [] dinucleotides)
+	{
+		int center = dinucleotides.length / 2;
+		
+		//Packing the window in dinucleotide codes
+		int previous = packBase(sequence, windowStart);
+		for (int i = 0; i < dinucleotides.length; i++) 
+		{
+			int next = packBase(sequence, windowStart + i + 1);
+			dinucleotides[i] = (previous << 3) | next;
+			previous = next;
+		}
+		
+		//Each match is scored by its distance to the original boundary, with upstream matches first on ties.
+		int best = Integer.MAX_VALUE;
+		for (int i = 0; i < dinucleotides.length; i++) 
+		{
+			int score = (Math.abs(i - center) << 1) | (i > center ? 1 : 0);
+			best = Math.min(best, dinucleotides[i] == motif ? score : Integer.MAX_VALUE);
+		}
+		
+		if(best == Integer.MAX_VALUE)
+		{
+			return NO_SIGNAL;
+		}
+		return (best & 1) == 1 ? best >> 1 : -(best >> 1);
+	}
+	
+	/**
+	 * Packs a reference base in three bits: A=0, C=1, G=2, T=3 and 4 for any other base or positions outside the sequence.
+	 * @param sequence Reference sequence
+	 * @param position Zero based position
+	 * @return int - Code of the base
+	 */
+	private static int packBase(CharSequence sequence, int position)
+	{
+		if(position < 0 || position >= sequence.length())
+		{
+			return 4;
+		}
+		char base = sequence.charAt(position);
+		return base < BASE_CODES.length ? BASE_CODES[base] : 4;
+	}
+	
+	/**
+	 * Packs a motif of two bases in the dinucleotide code used by the coordinates refining.
+	 * @param motif Motif of two bases
+	 * @return int - Code of the motif
+	 */
+	private static int packMotif(String motif)
+	{
+		return (packBase(motif, 0) << 3) | packBase(motif, 1);
+	}
+	
+	/**
+	 * Sorts the predicted circRNAs by coordinate and numbers them in that order.
+	 */
+	public void sortPredictedCircRNAs()
+	{
+		Collections.sort(predictedCircRNAs);
+		for (int i = 0; i < predictedCircRNAs.size(); i++) 
+		{
+			predictedCircRNAs.get(i).setCircRNAId(i);
+		}
+	}
+	
+	/**
+	 * Counts of the coordinates moved by the refining of one batch of circRNAs
+	 */
+	private static class RefinementStatistics
+	{
+		private long movedJunctions;
+		private long movedStarts;
+		private long movedEnds;
+		private long withoutSignal;
+		private long [] shiftDistribution = new long[SPLICING_SIGNAL_TOLERANCE_WINDOW + 1];
+		
+		private void record(int startShift, int endShift)
+		{
+			boolean startMoved = startShift != NO_SIGNAL && startShift != 0;
+			boolean endMoved = endShift != NO_SIGNAL && endShift != 0;
+			if(startMoved || endMoved)
 			{
-				int coordinateSignalLeft = leftCoordinate - leftSiteWindow.indexOf("AC") + 2;
-				int coordinateSignalRight = rightCoordinate + rightSiteWindow.indexOf("CT") - 2;
-				circRNA.setStartCoordinate(coordinateSignalLeft);
-				circRNA.setEndCoordinate(coordinateSignalRight);
+				movedJunctions++;
 			}
+			if(startMoved)
+			{
+				movedStarts++;
+				shiftDistribution[Math.abs(startShift)]++;
+			}
+			if(endMoved)
+			{
+				movedEnds++;
+				shiftDistribution[Math.abs(endShift)]++;
+			}
+			withoutSignal += (startShift == NO_SIGNAL ? 1 : 0) + (endShift == NO_SIGNAL ? 1 : 0);
+		}
+		
+		private RefinementStatistics add(RefinementStatistics other)
+		{
+			RefinementStatistics sum = new RefinementStatistics();
+			sum.movedJunctions = movedJunctions + other.movedJunctions;
+			sum.movedStarts = movedStarts + other.movedStarts;
+			sum.movedEnds = movedEnds + other.movedEnds;
+			sum.withoutSignal = withoutSignal + other.withoutSignal;
+			for (int i = 0; i < shiftDistribution.length; i++) 
+			{
+				sum.shiftDistribution[i] = shiftDistribution[i] + other.shiftDistribution[i];
+			}
+			return sum;
 		}
 	}
 	
@@ -567,11 +1077,120 @@ public class CIRCE {
 	 */
 	public void recordNumberOfPredictedCircRNAs()
 	{
-		System.out.println("circRNA ID"+ "\t" + "Contig/chromosome" + "\t" + "Start coordinate" + "\t" + "End coordinate" + "\t" + "Coding strand" + "\t" + "Number of supporting junction reads" + "\t" + "Name of the supporting junction reads");
-		for (CircRNA circRNA : predictedCircRNAs) 
+		getPredictions().print(System.out);
+	}
+	
+	/**
+	 * Returns the predicted circRNAs with the dictionaries of sequence and read names that they refer to
+	 * @return CircRNAPredictionsFile - Predictions of the run
+	 */
+	public CircRNAPredictionsFile getPredictions()
+	{
+		return new CircRNAPredictionsFile(sequenceNames, readNames, predictedCircRNAs);
+	}
+	
+	/**
+	 * Returns the number of reads represented by a junction read after the duplicates collapsing.
+	 * @param readName Name of the read
+	 * @return int - Number of copies of the read, one if it had no duplicates
+	 */
+	public int getReadWeight(String readName)
+	{
+		Integer weight = readWeights.get(readName);
+		return weight == null ? 1 : weight;
+	}
+	
+	/**
+	 * Calculates the 64-bit fingerprint used to identify PCR duplicates. The fingerprint of each alignment mixes sequence,
+	 * unclipped positions, strand and the mate position, or the molecular identifier when present. The unclipped positions
+	 * keep apart reads with the same aligned span but different clipping, which come from different fragments. The fingerprints of
+	 * the alignments are added, so the result does not depend on the order of the alignments.
+	 * @param readAlignments Alignments of the read
+	 * @param umi Unique molecular identifier of the read or null if the read has none
+	 * @return long - Fingerprint of the read
+	 */
+	public long getDuplicateFingerprint(ArrayList<ReadAlignment> readAlignments, String umi)
+	{
+		long fingerprint = 0;
+		for (ReadAlignment aln : readAlignments) 
+		{
+			long h = getStringFingerprint(aln.getSequenceName());
+			h = mixFingerprint(h, ((long) getUnclippedStart(aln) << 32) | (getUnclippedEnd(aln) & 0xFFFFFFFFL));
+			h = mixFingerprint(h, aln.isNegativeStrand() ? 1 : 0);
+			h = mixFingerprint(h, umi == null ? aln.getMateFirst() : getStringFingerprint(umi));
+			fingerprint += h;
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * Returns the reference position of the first base of the read, including the bases clipped at the start of the alignment.
+	 * @param aln Alignment of the read
+	 * @return int - Unclipped start of the alignment
+	 */
+	private static int getUnclippedStart(ReadAlignment aln)
+	{
+		int clippedBases = 0;
+		for (int i = 0; i < aln.getNumCigarItems() && isClipOperator(aln.getCigarItemOperator(i)); i++) 
+		{
+			clippedBases += aln.getCigarItemLength(i);
+		}
+		return aln.getFirst() - clippedBases;
+	}
+	
+	/**
+	 * Returns the reference position of the last base of the read, including the bases clipped at the end of the alignment.
+	 * @param aln Alignment of the read
+	 * @return int - Unclipped end of the alignment
+	 */
+	private static int getUnclippedEnd(ReadAlignment aln)
+	{
+		int clippedBases = 0;
+		for (int i = aln.getNumCigarItems() - 1; i >= 0 && isClipOperator(aln.getCigarItemOperator(i)); i--) 
 		{
-			System.out.println(circRNA.getCircRNAIdentifier() + "\t" + circRNA.getNameReferenceSequence() + "\t" + circRNA.getStartCoordinate() + "\t" + circRNA.getEndCoordinate() + "\t" + circRNA.getCodingStrand() + "\t" + circRNA.getNumberJunctionReadsSupport() + "\t" + circRNA.getNameOfSupportingJunctionReads());
+			clippedBases += aln.getCigarItemLength(i);
 		}
+		return aln.getLast() + clippedBases;
+	}
+	
+	/**
+	 * Tells if a CIGAR operator is a hard or soft clip.
+	 * @param operator CIGAR operator
+	 * @return boolean - True if the operator clips bases of the read
+	 */
+	private static boolean isClipOperator(int operator)
+	{
+		return operator == ReadAlignment.ALIGNMENT_HARDCLIP || operator == ReadAlignment.ALIGNMENT_SKIPFROMREAD;
+	}
+	
+	/**
+	 * Calculates the 64-bit FNV-1a hash of a string.
+	 * @param value String to hash
+	 * @return long - Hash of the string
+	 */
+	private static long getStringFingerprint(String value)
+	{
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < value.length(); i++) 
+		{
+			h ^= value.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return h;
+	}
+	
+	/**
+	 * Mixes a new field into a 64-bit fingerprint.
+	 * @param h Current fingerprint
+	 * @param value Field to mix
+	 * @return long - Updated fingerprint
+	 */
+	private static long mixFingerprint(long h, long value)
+	{
+		h ^= value + 0x9E3779B97F4A7C15L + (h << 6) + (h >>> 2);
+		h ^= h >>> 31;
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 29);
 	}
 	
 	
@@ -0,0 +1,207 @@
+package circe.main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.cram.CRAMException;
+import htsjdk.samtools.cram.build.ContainerParser;
+import htsjdk.samtools.cram.build.Cram2SamRecordFactory;
+import htsjdk.samtools.cram.build.CramContainerIterator;
+import htsjdk.samtools.cram.build.CramNormalizer;
+import htsjdk.samtools.cram.structure.Container;
+import htsjdk.samtools.cram.structure.CramCompressionRecord;
+
+/**
+ * Iterator over the records of a CRAM file that skips the reconstruction of read bases and quality scores. The records
+ * keep the name, flags, positions, CIGAR, mate fields and tags, which are the only fields used by the scan. The reference
+ * genome is never requested, so a CRAM scan costs about the same as a BAM scan and the file may have any sort order.
+ */
+public class CRAMAlignmentsIterator implements Iterator<SAMRecord>
+{
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Iterator over the containers of the CRAM file
+	 */
+	private CramContainerIterator containerIterator;
+
+	/**
+	 * Parser of the records of each container
+	 */
+	private ContainerParser parser;
+
+	/**
+	 * Factory that converts the CRAM records to SAM records
+	 */
+	private Cram2SamRecordFactory recordFactory;
+
+	/**
+	 * Records of the current container
+	 */
+	private ArrayList<CramCompressionRecord> cramRecords = new ArrayList<CramCompressionRecord>();
+
+	/**
+	 * Position in cramRecords of the next record to return
+	 */
+	private int nextRecord;
+
+	/**
+	 * Number of records read, used to name the reads of files that do not preserve the read names
+	 */
+	private long recordCounter;
+
+
+	//------------------------------------------------------------------------
+	// Constructor
+	//------------------------------------------------------------------------
+
+	/**
+	 * Creates the iterator reading the CRAM file from its first byte
+	 * @param stream Stream positioned at the start of the CRAM file
+	 * @throws IOException If the CRAM header cannot be read
+	 */
+	public CRAMAlignmentsIterator(InputStream stream) throws IOException
+	{
+		containerIterator = new CramContainerIterator(stream);
+		SAMFileHeader header = containerIterator.getCramHeader().getSamFileHeader();
+		parser = new ContainerParser(header);
+		recordFactory = new Cram2SamRecordFactory(header);
+	}
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	@Override
+	public boolean hasNext()
+	{
+		while (nextRecord == cramRecords.size())
+		{
+			if(!containerIterator.hasNext())
+			{
+				return false;
+			}
+
+			Container container = containerIterator.next();
+			if(!container.isEOF())
+			{
+				readContainer(container);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public SAMRecord next()
+	{
+		if(!hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+		return recordFactory.create(cramRecords.get(nextRecord++));
+	}
+
+	/**
+	 * Decodes the records of a container. The mate information of the pairs stored together in the container is restored
+	 * as CramNormalizer does, but the bases and quality scores are left empty instead of being rebuilt from the reference.
+	 * @param container Container to decode
+	 */
+	private void readContainer(Container container)
+	{
+		cramRecords.clear();
+		nextRecord = 0;
+		try
+		{
+			parser.getRecords(container, cramRecords, ValidationStringency.LENIENT);
+		}
+		catch (IllegalAccessException e)
+		{
+			throw new CRAMException("Records of the CRAM container at offset " + container.offset + " could not be decoded", e);
+		}
+
+		//Linking the records of each pair
+		for (int i = 0; i < cramRecords.size(); i++)
+		{
+			CramCompressionRecord record = cramRecords.get(i);
+			if(record.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+			{
+				record.alignmentStart = SAMRecord.NO_ALIGNMENT_START;
+			}
+
+			if(!record.isMultiFragment() || record.isDetached())
+			{
+				record.next = null;
+				record.previous = null;
+			}
+			else if(record.isHasMateDownStream())
+			{
+				CramCompressionRecord mate = cramRecords.get(i + record.recordsToNextFragment + 1);
+				record.next = mate;
+				mate.previous = record;
+			}
+		}
+
+		for (CramCompressionRecord record : cramRecords)
+		{
+			recordCounter++;
+			if(record.previous == null && record.next != null)
+			{
+				restoreMateInfo(record);
+			}
+
+			//Files that do not preserve the read names get the same generated name for all the records of a pair
+			if(record.readName == null)
+			{
+				record.readName = String.valueOf(recordCounter);
+				for (CramCompressionRecord mate = record.next; mate != null; mate = mate.next)
+				{
+					mate.readName = record.readName;
+				}
+			}
+
+			record.readBases = SAMRecord.NULL_SEQUENCE;
+			record.qualityScores = SAMRecord.NULL_QUALS;
+		}
+	}
+
+	/**
+	 * Copies the position, strand and sequence of each record of a pair to the mate fields of the previous record
+	 * @param first First record of the pair
+	 */
+	private static void restoreMateInfo(CramCompressionRecord first)
+	{
+		CramCompressionRecord current = first;
+		while (current.next != null)
+		{
+			setMate(current, current.next);
+			current = current.next;
+		}
+		setMate(current, first);
+
+		int templateSize = CramNormalizer.computeInsertSize(first, current);
+		first.templateSize = templateSize;
+		current.templateSize = -templateSize;
+	}
+
+	/**
+	 * Sets the mate fields of a record from its mate
+	 * @param record Record to update
+	 * @param mate Mate of the record
+	 */
+	private static void setMate(CramCompressionRecord record, CramCompressionRecord mate)
+	{
+		record.mateSequenceID = mate.sequenceId;
+		record.mateAlignmentStart = mate.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ? SAMRecord.NO_ALIGNMENT_START : mate.alignmentStart;
+		record.setMateUnmapped(mate.isSegmentUnmapped());
+		record.setMateNegativeStrand(mate.isNegativeStrand());
+	}
+}
@@ -1,20 +1,32 @@
 package circe.main;
 
-public class CircRNA 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CircRNA implements Comparable<CircRNA> 
 {
+	//------------------------------------------------------------------------
+	// Constants
+	//------------------------------------------------------------------------
+
+	public static final String IDENTIFIER_PREFIX = "circRNA";
+	private static final int INITIAL_SUPPORTING_READS_CAPACITY = 4;
+
 	//------------------------------------------------------------------------
 	// Attributes
 	//------------------------------------------------------------------------
 
 	/**
-	 * Identifiers of the circular RNA identified
+	 * Numeric identifier of the circular RNA identified. The text identifier is only built for the output
 	 */
-	private String circRNAIdentifier;
+	private int circRNAId;
 	
 	/**
-	 * The name of the reference sequence of the circRNA
+	 * Index of the reference sequence of the circRNA in the dictionary of sequence names
 	 */
-	private String nameReferenceSequence;
+	private int sequenceIndex;
 	
 	/**
 	 * Leftmost coordinate of the junction according to the reference genome
@@ -32,30 +44,43 @@ public class CircRNA
 	private char codingStrand;
 	
 	/**
-	 * Number of junction reads that support the circRNA.
+	 * Number of junction reads that support the circRNA after collapsing PCR duplicates. It is also the number of
+	 * positions used in supportingReads
 	 */
 	private int numberJunctionReadsSupport;
 	
 	/**
-	 * Name of the junction reads that support this circRNA
+	 * Number of junction reads that support the circRNA including PCR duplicates.
+	 */
+	private int numberRawJunctionReadsSupport;
+	
+	/**
+	 * Indices in the dictionary of read names of the junction reads that support this circRNA
 	 */
-	private String nameOfSupportingJunctionReads;
+	private int [] supportingReads;
 	
 	
 	//------------------------------------------------------------------------
 	// Constructor
 	//------------------------------------------------------------------------
 	
-	public CircRNA(String circRNAIdentifier, String nameReferenceSequence, int startCoordinate, int endCoordinate,
-			char codingStrand, int numberJunctionReadsSupport, String nameOfSupportingJunctionReads) 
+	public CircRNA(int circRNAId, int sequenceIndex, int startCoordinate, int endCoordinate,
+			char codingStrand, int numberRawJunctionReadsSupport, int supportingRead) 
 	{
-		this.circRNAIdentifier = circRNAIdentifier;
-		this.nameReferenceSequence = nameReferenceSequence;
+		this.circRNAId = circRNAId;
+		this.sequenceIndex = sequenceIndex;
 		this.startCoordinate = startCoordinate;
 		this.endCoordinate = endCoordinate;
 		this.codingStrand = codingStrand;
-		this.numberJunctionReadsSupport = numberJunctionReadsSupport;
-		this.nameOfSupportingJunctionReads = nameOfSupportingJunctionReads;
+		this.numberRawJunctionReadsSupport = numberRawJunctionReadsSupport;
+		this.supportingReads = new int[INITIAL_SUPPORTING_READS_CAPACITY];
+		this.supportingReads[0] = supportingRead;
+		this.numberJunctionReadsSupport = 1;
+	}
+	
+	private CircRNA()
+	{
+		
 	}
 
 
@@ -64,40 +89,48 @@ public class CircRNA
 	//------------------------------------------------------------------------
 	
 	/**
-	 * Returns the circRNA identifier
-	 * @return String - circRNA identifier
+	 * Returns the numeric circRNA identifier
+	 * @return int - Numeric circRNA identifier
 	 */
-	public String getCircRNAIdentifier() 
+	public int getCircRNAId()
 	{
-		return circRNAIdentifier;
+		return circRNAId;
 	}
 
+	/**
+	 * Sets the numeric circRNA identifier
+	 * @param circRNAId
+	 */
+	public void setCircRNAId(int circRNAId)
+	{
+		this.circRNAId = circRNAId;
+	}
 
 	/**
-	 * Sets the circRNA identifier
-	 * @param circRNAIdentifier
+	 * Returns the circRNA identifier
+	 * @return String - circRNA identifier
 	 */
-	public void setCircRNAIdentifier(String circRNAIdentifier) 
+	public String getCircRNAIdentifier() 
 	{
-		this.circRNAIdentifier = circRNAIdentifier;
+		return IDENTIFIER_PREFIX + circRNAId;
 	}
 
 	/**
-	 * Returns the reference sequence of this circRNA
-	 * @return String - Reference sequence of this circRNA
+	 * Returns the index of the reference sequence of this circRNA in the dictionary of sequence names
+	 * @return int - Index of the reference sequence of this circRNA
 	 */
-	public String getNameReferenceSequence() 
+	public int getSequenceIndex() 
 	{
-		return nameReferenceSequence;
+		return sequenceIndex;
 	}
 
 	/**
-	 * Sets the reference sequence of this circRNA
-	 * @param nameReferenceSequence
+	 * Sets the index of the reference sequence of this circRNA in the dictionary of sequence names
+	 * @param sequenceIndex
 	 */
-	public void setNameReferenceSequence(String nameReferenceSequence) 
+	public void setSequenceIndex(int sequenceIndex) 
 	{
-		this.nameReferenceSequence = nameReferenceSequence;
+		this.sequenceIndex = sequenceIndex;
 	}
 
 	/**
@@ -155,7 +188,7 @@ public class CircRNA
 	}
 
 	/**
-	 * Returns the number of junction reads that support this circRNA
+	 * Returns the number of junction reads that support this circRNA after collapsing PCR duplicates
 	 * @return int - Number of junction reads that support this circRNA.
 	 */
 	public int getNumberJunctionReadsSupport() 
@@ -164,26 +197,132 @@ public class CircRNA
 	}
 
 	/**
-	 * Sets the number of junction reads that support this circRNA
-	 * @param numberJunctionReadsSupport
+	 * Returns the number of junction reads that support this circRNA including PCR duplicates
+	 * @return int - Number of junction reads that support this circRNA including duplicates.
+	 */
+	public int getNumberRawJunctionReadsSupport()
+	{
+		return numberRawJunctionReadsSupport;
+	}
+
+	/**
+	 * Sets the number of junction reads that support this circRNA including PCR duplicates
+	 * @param numberRawJunctionReadsSupport
 	 */
-	public void setNumberJunctionReadsSupport(int numberJunctionReadsSupport) 
+	public void setNumberRawJunctionReadsSupport(int numberRawJunctionReadsSupport)
 	{
-		this.numberJunctionReadsSupport = numberJunctionReadsSupport;
+		this.numberRawJunctionReadsSupport = numberRawJunctionReadsSupport;
 	}
 	
 	/**
 	 * Returns the name of the reads that support this circRNA
+	 * @param readNames Dictionary of read names
 	 * @return String - Name of the reads that support this circRNA
 	 */
-	public String getNameOfSupportingJunctionReads()
+	public String getNameOfSupportingJunctionReads(NamesDictionary readNames)
 	{
-		return nameOfSupportingJunctionReads;
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < numberJunctionReadsSupport; i++)
+		{
+			if(i > 0)
+			{
+				names.append(',');
+			}
+			names.append(readNames.getName(supportingReads[i]));
+		}
+		return names.toString();
 	}
 	
-	public void setNameOfSupportingJunctionReads(String newReadName)
+	/**
+	 * Adds a junction read to the reads that support this circRNA and to the support count. The array grows by doubling,
+	 * so the cost is O(1) amortized
+	 * @param readIndex Index of the read name in the dictionary of read names
+	 */
+	public void addSupportingJunctionRead(int readIndex)
+	{
+		if(numberJunctionReadsSupport == supportingReads.length)
+		{
+			supportingReads = Arrays.copyOf(supportingReads, 2 * supportingReads.length);
+		}
+		supportingReads[numberJunctionReadsSupport++] = readIndex;
+	}
+
+	/**
+	 * Releases the unused capacity of the array of supporting reads
+	 */
+	public void trimSupportingReads()
+	{
+		if(numberJunctionReadsSupport < supportingReads.length)
+		{
+			supportingReads = Arrays.copyOf(supportingReads, numberJunctionReadsSupport);
+		}
+	}
+
+	/**
+	 * Orders the circRNAs by sequence, start coordinate, end coordinate and strand
+	 */
+	@Override
+	public int compareTo(CircRNA other)
+	{
+		int comparison = Integer.compare(sequenceIndex, other.sequenceIndex);
+		if(comparison == 0)
+		{
+			comparison = Integer.compare(startCoordinate, other.startCoordinate);
+		}
+		if(comparison == 0)
+		{
+			comparison = Integer.compare(endCoordinate, other.endCoordinate);
+		}
+		if(comparison == 0)
+		{
+			comparison = Character.compare(codingStrand, other.codingStrand);
+		}
+		return comparison;
+	}
+
+	/**
+	 * Writes this circRNA in binary format: identifier, sequence index, coordinates, strand, support counts and the indices
+	 * of the supporting reads. The indices refer to the dictionaries written with the records by CircRNAPredictionsFile
+	 * @param out Destination of the record
+	 * @throws IOException If the record cannot be written
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(circRNAId);
+		out.writeInt(sequenceIndex);
+		out.writeInt(startCoordinate);
+		out.writeInt(endCoordinate);
+		out.writeByte(codingStrand);
+		out.writeInt(numberRawJunctionReadsSupport);
+		out.writeInt(numberJunctionReadsSupport);
+		for (int i = 0; i < numberJunctionReadsSupport; i++)
+		{
+			out.writeInt(supportingReads[i]);
+		}
+	}
+
+	/**
+	 * Reads a circRNA written with the write method
+	 * @param in Source of the record
+	 * @return CircRNA - circRNA read
+	 * @throws IOException If the record cannot be read
+	 */
+	public static CircRNA read(DataInput in) throws IOException
 	{
-		this.nameOfSupportingJunctionReads = this.nameOfSupportingJunctionReads + "," + newReadName;
+		CircRNA circRNA = new CircRNA();
+		circRNA.circRNAId = in.readInt();
+		circRNA.sequenceIndex = in.readInt();
+		circRNA.startCoordinate = in.readInt();
+		circRNA.endCoordinate = in.readInt();
+		circRNA.codingStrand = (char) in.readByte();
+		circRNA.numberRawJunctionReadsSupport = in.readInt();
+		circRNA.numberJunctionReadsSupport = in.readInt();
+		circRNA.supportingReads = new int[circRNA.numberJunctionReadsSupport];
+		for (int i = 0; i < circRNA.numberJunctionReadsSupport; i++)
+		{
+			circRNA.supportingReads[i] = in.readInt();
+		}
+		return circRNA;
 	}
 	
 }
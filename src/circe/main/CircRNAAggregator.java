@@ -0,0 +1,483 @@
+package circe.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.PriorityQueue;
+
+/**
+ * Aggregates the circRNAs predicted by CIRCE in many samples. The per-sample outputs are merged with a k-way merge
+ * over their coordinate sorted records and the junctions within the boundary tolerance window are joined into one cohort
+ * circRNA. Writes the cohort circRNAs, the sample names and a sparse circRNA by sample count matrix in MatrixMarket format.
+ * Only one block of each sample file and the circRNAs inside the tolerance window are kept in memory.
+ */
+public class CircRNAAggregator
+{
+	//------------------------------------------------------------------------
+	// Constants
+	//------------------------------------------------------------------------
+
+	public static final int SAMPLE_BUFFER_SIZE = 16384;
+	public static final String HEADER_PREFIX = "circRNA ID";
+
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Reference sequence names in the order of the reference genome, which is the order of the CIRCE outputs
+	 */
+	private NamesDictionary sequenceNames;
+
+	/**
+	 * Names of the samples
+	 */
+	private ArrayList<String> sampleNames = new ArrayList<String>();
+
+	/**
+	 * Paths of the CIRCE outputs of the samples
+	 */
+	private ArrayList<String> samplePaths = new ArrayList<String>();
+
+	/**
+	 * Cohort circRNAs that can still receive junctions from the samples, in order of their first junction
+	 */
+	private ArrayDeque<CohortCircRNA> openCircRNAs = new ArrayDeque<CohortCircRNA>();
+
+	/**
+	 * Number of cohort circRNAs written so far
+	 */
+	private int writtenCircRNAs;
+
+	/**
+	 * Number of non zero entries of the count matrix written so far
+	 */
+	private long writtenCounts;
+
+	/**
+	 * Writer of the cohort circRNAs
+	 */
+	private PrintStream junctionsOut;
+
+	/**
+	 * Writer of the entries of the count matrix
+	 */
+	private PrintStream countsOut;
+
+	//------------------------------------------------------------------------
+	// Main methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Main method to run the aggregation
+	 * @param args Array with the reference genome used by CIRCE, a file with the path of one CIRCE output per line,
+	 * optionally followed by a tab and the sample name, and the prefix of the output files
+	 * @throws Exception If the files can not be read or written
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		CircRNAAggregator instance = new CircRNAAggregator();
+		System.err.println("[" + instance.getTimeStamp() + "]" + " Aggregation started." );
+		instance.loadSequenceNames(args[0]);
+		instance.loadSamples(args[1]);
+		System.err.println("[" + instance.getTimeStamp() + "]" + " Merging the circRNAs of " + instance.sampleNames.size() + " samples." );
+		instance.aggregate(args[2]);
+		DecimalFormat formatter = new DecimalFormat("###,###,###,###,###");
+		System.err.println("[" + instance.getTimeStamp() + "] " + formatter.format(instance.writtenCircRNAs) + " cohort circRNAs and " + formatter.format(instance.writtenCounts) + " non zero counts written." );
+		System.err.println("[" + instance.getTimeStamp() + "]" + " Aggregation finished." );
+	}
+
+	/**
+	 * Loads the names of the reference sequences in genome order from the FASTA index, or from the FASTA headers if there is no index
+	 * @param referenceFile Path to the reference genome in FASTA format
+	 * @throws IOException If the file cannot be read
+	 */
+	public void loadSequenceNames(String referenceFile) throws IOException
+	{
+		sequenceNames = new NamesDictionary();
+		File indexFile = new File(referenceFile + ".fai");
+		boolean indexed = indexFile.isFile();
+
+		try (BufferedReader in = new BufferedReader(new FileReader(indexed ? indexFile : new File(referenceFile))))
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if(indexed)
+				{
+					sequenceNames.addOrLookup(line.substring(0, line.indexOf('\t')));
+				}
+				else if(line.startsWith(">"))
+				{
+					String [] items = line.substring(1).trim().split("\\s");
+					sequenceNames.addOrLookup(items[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the paths and names of the samples
+	 * @param samplesFile File with one CIRCE output path per line, optionally followed by a tab and the sample name
+	 * @throws IOException If the file cannot be read
+	 */
+	public void loadSamples(String samplesFile) throws IOException
+	{
+		try (BufferedReader in = new BufferedReader(new FileReader(samplesFile)))
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				line = line.trim();
+				if(line.isEmpty())
+				{
+					continue;
+				}
+				String [] items = line.split("\t");
+				String sampleName = items.length > 1 ? items[1] : new File(items[0]).getName().replaceFirst("\\.circ$", "");
+				samplePaths.add(items[0]);
+				sampleNames.add(sampleName);
+			}
+		}
+	}
+
+	/**
+	 * Merges the circRNAs of all the samples and writes the outputs
+	 * @param outPrefix Prefix of the output files
+	 * @throws IOException If the files cannot be read or written
+	 */
+	public void aggregate(String outPrefix) throws IOException
+	{
+		try (PrintStream samplesOut = new PrintStream(outPrefix + ".samples.txt"))
+		{
+			for (String sampleName : sampleNames)
+			{
+				samplesOut.println(sampleName);
+			}
+		}
+
+		//The size line of the matrix is written at the end, so a fixed width line is reserved.
+		String matrixFile = outPrefix + ".counts.mtx";
+		String sizePlaceholder = String.format("%-40s", "");
+		junctionsOut = new PrintStream(outPrefix + ".junctions.tsv");
+		countsOut = new PrintStream(matrixFile);
+		countsOut.println("%%MatrixMarket matrix coordinate integer general");
+		countsOut.println(sizePlaceholder);
+		junctionsOut.println("circRNA ID" + "\t" + "Contig/chromosome" + "\t" + "Start coordinate" + "\t" + "End coordinate" + "\t" + "Coding strand" + "\t" + "Number of samples" + "\t" + "Number of supporting junction reads");
+
+		try
+		{
+			//Priority queue with the next junction of every sample.
+			PriorityQueue<SampleCursor> cursors = new PriorityQueue<SampleCursor>(Math.max(1, samplePaths.size()));
+			for (int i = 0; i < samplePaths.size(); i++)
+			{
+				SampleCursor cursor = new SampleCursor(i, samplePaths.get(i));
+				if(cursor.advance())
+				{
+					cursors.add(cursor);
+				}
+			}
+
+			while (!cursors.isEmpty())
+			{
+				SampleCursor cursor = cursors.poll();
+				addJunction(cursor);
+				if(cursor.advance())
+				{
+					cursors.add(cursor);
+				}
+			}
+
+			while (!openCircRNAs.isEmpty())
+			{
+				writeCircRNA(openCircRNAs.pollFirst());
+			}
+		}
+		finally
+		{
+			junctionsOut.close();
+			countsOut.close();
+		}
+
+		try (RandomAccessFile matrix = new RandomAccessFile(matrixFile, "rw"))
+		{
+			String size = writtenCircRNAs + " " + sampleNames.size() + " " + writtenCounts;
+			matrix.seek("%%MatrixMarket matrix coordinate integer general".length() + System.lineSeparator().length());
+			matrix.write(String.format("%-40s", size).getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	/**
+	 * Adds the current junction of a sample to the cohort circRNA within the tolerance window, or creates a new one.
+	 * The cohort circRNAs that are too far behind the junction are written first, because the following junctions cannot reach them.
+	 * @param cursor Sample positioned at the junction to add
+	 */
+	private void addJunction(SampleCursor cursor)
+	{
+		while (!openCircRNAs.isEmpty())
+		{
+			CohortCircRNA first = openCircRNAs.peekFirst();
+			if(first.sequenceIndex == cursor.sequenceIndex && first.anchorStart >= cursor.start - CIRCE.JUNCTION_BOUNDARY_COORDINATE_TOLERANCE_WINDOW)
+			{
+				break;
+			}
+			writeCircRNA(openCircRNAs.pollFirst());
+		}
+
+		for (CohortCircRNA circRNA : openCircRNAs)
+		{
+			if(circRNA.codingStrand == cursor.codingStrand
+					&& Math.abs(circRNA.anchorStart - cursor.start) <= CIRCE.JUNCTION_BOUNDARY_COORDINATE_TOLERANCE_WINDOW
+					&& Math.abs(circRNA.anchorEnd - cursor.end) <= CIRCE.JUNCTION_BOUNDARY_COORDINATE_TOLERANCE_WINDOW)
+			{
+				circRNA.add(cursor);
+				return;
+			}
+		}
+
+		CohortCircRNA circRNA = new CohortCircRNA(cursor);
+		circRNA.add(cursor);
+		openCircRNAs.add(circRNA);
+	}
+
+	/**
+	 * Writes a cohort circRNA and its non zero counts
+	 * @param circRNA Cohort circRNA to write
+	 */
+	private void writeCircRNA(CohortCircRNA circRNA)
+	{
+		writtenCircRNAs++;
+		int samples = circRNA.collapseCounts();
+		long totalReads = 0;
+		for (int i = 0; i < samples; i++)
+		{
+			int sample = (int) (circRNA.counts[i] >>> 32);
+			int count = (int) circRNA.counts[i];
+			countsOut.println(writtenCircRNAs + " " + (sample + 1) + " " + count);
+			totalReads += count;
+		}
+		writtenCounts += samples;
+		junctionsOut.println(CircRNA.IDENTIFIER_PREFIX + (writtenCircRNAs - 1) + "\t" + sequenceNames.getName(circRNA.sequenceIndex) + "\t" + circRNA.start + "\t" + circRNA.end + "\t" + circRNA.codingStrand + "\t" + samples + "\t" + totalReads);
+	}
+
+	//------------------------------------------------------------------------
+	// Helper methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Prints the timestamp.
+	 * @return String - Timestamp.
+	 */
+	public String getTimeStamp ()
+	{
+		SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy h:mm:ss a");
+		return sdf.format(new Date());
+	}
+
+	//------------------------------------------------------------------------
+	// Helper classes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Circular RNA of the cohort with the counts of the samples that support it
+	 */
+	private static class CohortCircRNA
+	{
+		private int sequenceIndex;
+		private int anchorStart;
+		private int anchorEnd;
+		private int start;
+		private int end;
+		private char codingStrand;
+
+		/**
+		 * Sample index in the upper 32 bits and count in the lower 32 bits. A sample can appear more than once until the counts are collapsed
+		 */
+		private long [] counts = new long[4];
+		private int numberCounts;
+
+		private CohortCircRNA(SampleCursor cursor)
+		{
+			sequenceIndex = cursor.sequenceIndex;
+			anchorStart = start = cursor.start;
+			anchorEnd = end = cursor.end;
+			codingStrand = cursor.codingStrand;
+		}
+
+		private void add(SampleCursor cursor)
+		{
+			start = Math.min(start, cursor.start);
+			end = Math.max(end, cursor.end);
+			if(numberCounts == counts.length)
+			{
+				counts = Arrays.copyOf(counts, 2 * counts.length);
+			}
+			counts[numberCounts++] = ((long) cursor.sampleIndex << 32) | cursor.support;
+		}
+
+		/**
+		 * Sorts the counts by sample and adds the counts of the same sample
+		 * @return int - Number of samples with counts
+		 */
+		private int collapseCounts()
+		{
+			Arrays.sort(counts, 0, numberCounts);
+			int samples = 0;
+			for (int i = 0; i < numberCounts; i++)
+			{
+				if(samples > 0 && (counts[samples - 1] >>> 32) == (counts[i] >>> 32))
+				{
+					counts[samples - 1] += (int) counts[i];
+				}
+				else
+				{
+					counts[samples++] = counts[i];
+				}
+			}
+			return samples;
+		}
+	}
+
+	/**
+	 * Reader of the junctions of one sample. The file is reopened for each block, so the number of samples is not limited
+	 * by the number of files that can be open at the same time.
+	 */
+	private class SampleCursor implements Comparable<SampleCursor>
+	{
+		private int sampleIndex;
+		private String path;
+		private long fileOffset;
+		private ByteBuffer block = ByteBuffer.allocate(SAMPLE_BUFFER_SIZE);
+		private boolean endOfFile;
+		private StringBuilder line = new StringBuilder();
+
+		private int sequenceIndex = -1;
+		private int start;
+		private int end;
+		private char codingStrand;
+		private int support;
+
+		private SampleCursor(int sampleIndex, String path)
+		{
+			this.sampleIndex = sampleIndex;
+			this.path = path;
+			block.flip();
+		}
+
+		/**
+		 * Moves to the next junction of the sample
+		 * @return boolean - False if there are no more junctions
+		 * @throws IOException If the file cannot be read, has an invalid line or is not sorted by coordinate
+		 */
+		private boolean advance() throws IOException
+		{
+			while (readLine())
+			{
+				String currentLine = line.toString();
+				if(currentLine.isEmpty() || currentLine.startsWith(HEADER_PREFIX))
+				{
+					continue;
+				}
+
+				String [] items = currentLine.split("\t");
+				int previousSequence = sequenceIndex;
+				int previousStart = start;
+				sequenceIndex = sequenceNames.getIndex(items[1]);
+				if(sequenceIndex < 0)
+				{
+					throw new IOException("Sequence " + items[1] + " of " + path + " is not in the reference genome");
+				}
+				start = Integer.parseInt(items[2]);
+				end = Integer.parseInt(items[3]);
+				codingStrand = items[4].charAt(0);
+				support = Integer.parseInt(items[5]);
+
+				if(sequenceIndex < previousSequence || (sequenceIndex == previousSequence && start < previousStart))
+				{
+					throw new IOException("CIRCE output " + path + " is not sorted by coordinate at " + items[0]);
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Reads the next line of the file, loading a new block when the current one is exhausted
+		 * @return boolean - False if the end of the file was reached
+		 * @throws IOException If the file cannot be read
+		 */
+		private boolean readLine() throws IOException
+		{
+			line.setLength(0);
+			while (true)
+			{
+				while (block.hasRemaining())
+				{
+					char c = (char) block.get();
+					if(c == '\n')
+					{
+						return true;
+					}
+					if(c != '\r')
+					{
+						line.append(c);
+					}
+				}
+
+				if(endOfFile)
+				{
+					return line.length() > 0;
+				}
+
+				block.clear();
+				try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ))
+				{
+					channel.position(fileOffset);
+					int read = channel.read(block);
+					if(read > 0)
+					{
+						fileOffset += read;
+					}
+					endOfFile = read < block.capacity();
+				}
+				block.flip();
+			}
+		}
+
+		@Override
+		public int compareTo(SampleCursor other)
+		{
+			int comparison = Integer.compare(sequenceIndex, other.sequenceIndex);
+			if(comparison == 0)
+			{
+				comparison = Integer.compare(start, other.start);
+			}
+			if(comparison == 0)
+			{
+				comparison = Integer.compare(end, other.end);
+			}
+			if(comparison == 0)
+			{
+				comparison = Character.compare(codingStrand, other.codingStrand);
+			}
+			if(comparison == 0)
+			{
+				comparison = Integer.compare(sampleIndex, other.sampleIndex);
+			}
+			return comparison;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package circe.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predictions of one CIRCE run together with the dictionaries of sequence and read names that their indices refer to.
+ * The binary layout is self-contained: a header with the magic number, the version and both dictionaries, followed by
+ * the number of circRNAs and the circRNA records.
+ */
+public class CircRNAPredictionsFile
+{
+	//------------------------------------------------------------------------
+	// Constants
+	//------------------------------------------------------------------------
+
+	public static final int MAGIC_NUMBER = 0x43495243;
+	public static final int VERSION = 1;
+	public static final String HEADER = "circRNA ID" + "\t" + "Contig/chromosome" + "\t" + "Start coordinate" + "\t" + "End coordinate" + "\t" + "Coding strand" + "\t" + "Number of supporting junction reads" + "\t" + "Number of supporting junction reads with duplicates" + "\t" + "Name of the supporting junction reads";
+
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Dictionary of the reference sequence names
+	 */
+	private NamesDictionary sequenceNames;
+
+	/**
+	 * Dictionary of the names of the supporting junction reads
+	 */
+	private NamesDictionary readNames;
+
+	/**
+	 * Predicted circRNAs sorted by coordinate
+	 */
+	private List<CircRNA> circRNAs;
+
+
+	//------------------------------------------------------------------------
+	// Constructor
+	//------------------------------------------------------------------------
+
+	public CircRNAPredictionsFile(NamesDictionary sequenceNames, NamesDictionary readNames, List<CircRNA> circRNAs)
+	{
+		this.sequenceNames = sequenceNames;
+		this.readNames = readNames;
+		this.circRNAs = circRNAs;
+	}
+
+
+	//------------------------------------------------------------------------
+	// Main methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Prints a binary predictions file in the text format of CIRCE
+	 * @param args Array with the path to the binary predictions file
+	 * @throws Exception If the file can not be read
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		read(args[0]).print(System.out);
+	}
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Returns the dictionary of the reference sequence names
+	 * @return NamesDictionary - Dictionary of sequence names
+	 */
+	public NamesDictionary getSequenceNames()
+	{
+		return sequenceNames;
+	}
+
+	/**
+	 * Returns the dictionary of the names of the supporting junction reads
+	 * @return NamesDictionary - Dictionary of read names
+	 */
+	public NamesDictionary getReadNames()
+	{
+		return readNames;
+	}
+
+	/**
+	 * Returns the predicted circRNAs
+	 * @return List<CircRNA> - Predicted circRNAs
+	 */
+	public List<CircRNA> getCircRNAs()
+	{
+		return circRNAs;
+	}
+
+	/**
+	 * Writes the predictions in binary format
+	 * @param path Path of the binary file
+	 * @throws IOException If the file cannot be written
+	 */
+	public void write(String path) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path))))
+		{
+			out.writeInt(MAGIC_NUMBER);
+			out.writeInt(VERSION);
+			sequenceNames.write(out);
+			readNames.write(out);
+			out.writeInt(circRNAs.size());
+			for (CircRNA circRNA : circRNAs)
+			{
+				circRNA.write(out);
+			}
+		}
+	}
+
+	/**
+	 * Reads predictions written with the write method
+	 * @param path Path of the binary file
+	 * @return CircRNAPredictionsFile - Predictions and dictionaries read
+	 * @throws IOException If the file cannot be read or is not a CIRCE predictions file
+	 */
+	public static CircRNAPredictionsFile read(String path) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path))))
+		{
+			if(in.readInt() != MAGIC_NUMBER)
+			{
+				throw new IOException(path + " is not a CIRCE predictions file");
+			}
+			int version = in.readInt();
+			if(version != VERSION)
+			{
+				throw new IOException("Version " + version + " of the predictions file " + path + " is not supported");
+			}
+
+			NamesDictionary sequenceNames = NamesDictionary.read(in);
+			NamesDictionary readNames = NamesDictionary.read(in);
+			int numberCircRNAs = in.readInt();
+			ArrayList<CircRNA> circRNAs = new ArrayList<CircRNA>(numberCircRNAs);
+			for (int i = 0; i < numberCircRNAs; i++)
+			{
+				circRNAs.add(CircRNA.read(in));
+			}
+			return new CircRNAPredictionsFile(sequenceNames, readNames, circRNAs);
+		}
+	}
+
+	/**
+	 * Prints the predictions in the text format of CIRCE
+	 * @param out Destination of the predictions
+	 */
+	public void print(PrintStream out)
+	{
+		out.println(HEADER);
+		for (CircRNA circRNA : circRNAs)
+		{
+			out.println(circRNA.getCircRNAIdentifier() + "\t" + sequenceNames.getName(circRNA.getSequenceIndex()) + "\t" + circRNA.getStartCoordinate() + "\t" + circRNA.getEndCoordinate() + "\t" + circRNA.getCodingStrand() + "\t" + circRNA.getNumberJunctionReadsSupport() + "\t" + circRNA.getNumberRawJunctionReadsSupport() + "\t" + circRNA.getNameOfSupportingJunctionReads(readNames));
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package circe.main;
+
+/**
+ * Open addressing hash map from primitive 64-bit keys to primitive int values. Avoids the boxing of HashMap<Long, Integer>
+ * when millions of keys are indexed.
+ */
+public class LongIntHashMap
+{
+	//------------------------------------------------------------------------
+	// Constants
+	//------------------------------------------------------------------------
+
+	public static final int NO_VALUE = -1;
+	private static final int MIN_CAPACITY = 16;
+
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Keys of the table. Free slots are marked with zero, the zero key is stored apart
+	 */
+	private long[] keys;
+
+	/**
+	 * Values of the table, aligned with the keys
+	 */
+	private int[] values;
+
+	/**
+	 * Value of the zero key, if present
+	 */
+	private int zeroKeyValue = NO_VALUE;
+
+	/**
+	 * Number of keys stored
+	 */
+	private int size;
+
+
+	//------------------------------------------------------------------------
+	// Constructor
+	//------------------------------------------------------------------------
+
+	public LongIntHashMap(int expectedSize)
+	{
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expectedSize)
+		{
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new int[capacity];
+	}
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Returns the value of the given key
+	 * @param key Key to look for
+	 * @return int - Value of the key or NO_VALUE if the key is not present
+	 */
+	public int get(long key)
+	{
+		if(key == 0)
+		{
+			return zeroKeyValue;
+		}
+
+		int mask = keys.length - 1;
+		for (int slot = mix(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+		{
+			if(keys[slot] == key)
+			{
+				return values[slot];
+			}
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Stores the value for the key only if the key is not already present
+	 * @param key Key to store
+	 * @param value Non negative value to associate with the key
+	 * @return int - Value already associated with the key, or NO_VALUE if the key was added
+	 */
+	public int putIfAbsent(long key, int value)
+	{
+		if(key == 0)
+		{
+			int previous = zeroKeyValue;
+			if(previous == NO_VALUE)
+			{
+				zeroKeyValue = value;
+				size++;
+			}
+			return previous;
+		}
+
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		for (; keys[slot] != 0; slot = (slot + 1) & mask)
+		{
+			if(keys[slot] == key)
+			{
+				return values[slot];
+			}
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+
+		if(2 * size > keys.length)
+		{
+			rehash(keys.length << 1);
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Moves the stored keys to a table of the given capacity
+	 * @param newCapacity Power of two capacity of the new table
+	 */
+	private void rehash(int newCapacity)
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[newCapacity];
+		values = new int[newCapacity];
+		int mask = newCapacity - 1;
+
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if(oldKeys[i] != 0)
+			{
+				int slot = mix(oldKeys[i]) & mask;
+				while (keys[slot] != 0)
+				{
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of the key over the lower bits used to select the slot
+	 * @param key Key to mix
+	 * @return int - Mixed hash of the key
+	 */
+	private static int mix(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
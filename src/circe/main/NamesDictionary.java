@@ -0,0 +1,110 @@
+package circe.main;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Dictionary that assigns consecutive integer indices to names, so each name is stored only once
+ */
+public class NamesDictionary
+{
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Names in the order of their indices
+	 */
+	private ArrayList<String> names = new ArrayList<String>();
+
+	/**
+	 * Index of each name
+	 */
+	private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Returns the index of the name, adding it to the dictionary if it is not present
+	 * @param name Name to look for
+	 * @return int - Index of the name
+	 */
+	public int addOrLookup(String name)
+	{
+		Integer index = indices.get(name);
+		if(index == null)
+		{
+			index = names.size();
+			names.add(name);
+			indices.put(name, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the index of the name
+	 * @param name Name to look for
+	 * @return int - Index of the name or -1 if the name is not in the dictionary
+	 */
+	public int getIndex(String name)
+	{
+		Integer index = indices.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the name with the given index
+	 * @param index Index of the name
+	 * @return String - Name with the given index
+	 */
+	public String getName(int index)
+	{
+		return names.get(index);
+	}
+
+	/**
+	 * Returns the number of names in the dictionary
+	 * @return int - Number of names
+	 */
+	public int size()
+	{
+		return names.size();
+	}
+
+	/**
+	 * Writes the dictionary in binary format: number of names followed by the names in the order of their indices
+	 * @param out Destination of the dictionary
+	 * @throws IOException If the dictionary cannot be written
+	 */
+	public void write(DataOutput out) throws IOException
+	{
+		out.writeInt(names.size());
+		for (String name : names)
+		{
+			out.writeUTF(name);
+		}
+	}
+
+	/**
+	 * Reads a dictionary written with the write method. The names keep their indices
+	 * @param in Source of the dictionary
+	 * @return NamesDictionary - Dictionary read
+	 * @throws IOException If the dictionary cannot be read
+	 */
+	public static NamesDictionary read(DataInput in) throws IOException
+	{
+		NamesDictionary dictionary = new NamesDictionary();
+		int numberNames = in.readInt();
+		for (int i = 0; i < numberNames; i++)
+		{
+			dictionary.addOrLookup(in.readUTF());
+		}
+		return dictionary;
+	}
+}
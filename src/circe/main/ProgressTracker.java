@@ -0,0 +1,234 @@
+package circe.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.Locale;
+
+/**
+ * Tracks the progress of the scan of an alignments file using the position in the compressed file. Reports the percentage
+ * processed, the instantaneous and average number of records per second and the estimated remaining time, and keeps a
+ * machine readable status file updated for job schedulers.
+ */
+public class ProgressTracker
+{
+	//------------------------------------------------------------------------
+	// Constants
+	//------------------------------------------------------------------------
+
+	/**
+	 * The clock is only queried once every 65536 records
+	 */
+	public static final long CHECK_MASK = 0xFFFF;
+	public static final long REPORT_INTERVAL_MILLIS = 30000;
+	private static final double RATE_SMOOTHING = 0.3;
+	public static final String STAGE_SCANNING = "scanning";
+	public static final String STAGE_FINISHED = "finished";
+
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Name of the input being scanned
+	 */
+	private String inputName;
+
+	/**
+	 * Size in bytes of the input or -1 if it is a stream of unknown size
+	 */
+	private long totalBytes;
+
+	/**
+	 * Path of the status file or null if no status file is written
+	 */
+	private String statusFile;
+
+	/**
+	 * Current stage of the run
+	 */
+	private String stage = STAGE_SCANNING;
+
+	private long startTime;
+	private long lastReportTime;
+	private long lastRecords;
+	private long lastBytes;
+
+	private long records;
+	private long storedRecords;
+	private long bytesRead = -1;
+	private double instantRecordsRate;
+	private double averageRecordsRate;
+	private double smoothedBytesRate = -1;
+	private long remainingSeconds = -1;
+
+
+	//------------------------------------------------------------------------
+	// Constructor
+	//------------------------------------------------------------------------
+
+	public ProgressTracker(String inputName, long totalBytes, String statusFile)
+	{
+		this.inputName = inputName;
+		this.totalBytes = totalBytes;
+		this.statusFile = statusFile;
+		this.startTime = System.currentTimeMillis();
+		this.lastReportTime = startTime;
+	}
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Tells if a new report is due. In the records loop it must only be called when (records & CHECK_MASK) == 0 to keep the cost off the loop
+	 * @return boolean - True if the report interval has elapsed since the last report
+	 */
+	public boolean isReportDue()
+	{
+		return System.currentTimeMillis() - lastReportTime >= REPORT_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Updates the rates and the estimated remaining time and refreshes the status file
+	 * @param records Number of records processed
+	 * @param storedRecords Number of records stored
+	 * @param bytesRead Position in the input file or -1 if it is unknown
+	 */
+	public void update(long records, long storedRecords, long bytesRead)
+	{
+		long now = System.currentTimeMillis();
+		double intervalSeconds = Math.max(1, now - lastReportTime) / 1000.0;
+		double elapsedSeconds = Math.max(1, now - startTime) / 1000.0;
+
+		this.records = records;
+		this.storedRecords = storedRecords;
+		this.bytesRead = bytesRead;
+		instantRecordsRate = (records - lastRecords) / intervalSeconds;
+		averageRecordsRate = records / elapsedSeconds;
+
+		if(bytesRead >= 0 && totalBytes > 0)
+		{
+			double instantBytesRate = (bytesRead - lastBytes) / intervalSeconds;
+			smoothedBytesRate = smoothedBytesRate < 0 ? instantBytesRate : RATE_SMOOTHING * instantBytesRate + (1 - RATE_SMOOTHING) * smoothedBytesRate;
+			remainingSeconds = smoothedBytesRate > 0 ? (long) (Math.max(0, totalBytes - bytesRead) / smoothedBytesRate) : -1;
+			lastBytes = bytesRead;
+		}
+
+		lastRecords = records;
+		lastReportTime = now;
+		writeStatus();
+	}
+
+	/**
+	 * Changes the stage of the run and refreshes the status file. Only the scan has an estimated remaining time, so the
+	 * remaining time of the following stages is reported as unknown (-1) until the run is finished
+	 * @param stage Name of the new stage
+	 */
+	public void setStage(String stage)
+	{
+		this.stage = stage;
+		remainingSeconds = STAGE_FINISHED.equals(stage) ? 0 : -1;
+		writeStatus();
+	}
+
+	/**
+	 * Refreshes the status file without changing the stage, so the stages after the scan that run for a long time are not
+	 * mistaken for a hung job
+	 */
+	public void heartbeat()
+	{
+		lastReportTime = System.currentTimeMillis();
+		writeStatus();
+	}
+
+	/**
+	 * Returns the percentage of the input processed
+	 * @return double - Percentage processed or -1 if the size of the input is unknown
+	 */
+	public double getPercentProcessed()
+	{
+		if(bytesRead < 0 || totalBytes <= 0)
+		{
+			return -1;
+		}
+		return Math.min(100.0, 100.0 * bytesRead / totalBytes);
+	}
+
+	/**
+	 * Returns the line that describes the current progress for the log
+	 * @return String - Progress description
+	 */
+	public String getProgressLine()
+	{
+		DecimalFormat formatter = new DecimalFormat("###,###,###,###,###");
+		StringBuilder line = new StringBuilder();
+		line.append(formatter.format(records)).append(" alignments processed - ");
+		line.append(formatter.format(storedRecords)).append(" alignments stored - ");
+		double percent = getPercentProcessed();
+		if(percent >= 0)
+		{
+			line.append(String.format(Locale.US, "%.1f", percent)).append("% of the file - ");
+		}
+		line.append(formatter.format((long) instantRecordsRate)).append(" alignments/s (");
+		line.append(formatter.format((long) averageRecordsRate)).append(" alignments/s on average)");
+		if(remainingSeconds >= 0)
+		{
+			line.append(" - ETA ").append(formatDuration(remainingSeconds));
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Writes the status file. The file is written to a temporary file and moved, so readers never see a partial status
+	 */
+	private void writeStatus()
+	{
+		if(statusFile == null)
+		{
+			return;
+		}
+
+		File status = new File(statusFile);
+		File tmpStatus = new File(statusFile + ".tmp");
+		try
+		{
+			try (PrintStream out = new PrintStream(tmpStatus))
+			{
+				out.println("{");
+				out.println("  \"input\": \"" + inputName.replace("\\", "\\\\").replace("\"", "\\\"") + "\",");
+				out.println("  \"stage\": \"" + stage + "\",");
+				out.println("  \"recordsProcessed\": " + records + ",");
+				out.println("  \"recordsStored\": " + storedRecords + ",");
+				out.println("  \"bytesRead\": " + bytesRead + ",");
+				out.println("  \"totalBytes\": " + totalBytes + ",");
+				out.println("  \"percentDone\": " + String.format(Locale.US, "%.2f", getPercentProcessed()) + ",");
+				out.println("  \"instantRecordsPerSecond\": " + (long) instantRecordsRate + ",");
+				out.println("  \"averageRecordsPerSecond\": " + (long) averageRecordsRate + ",");
+				out.println("  \"etaSeconds\": " + remainingSeconds + ",");
+				out.println("  \"elapsedSeconds\": " + (System.currentTimeMillis() - startTime) / 1000 + ",");
+				out.println("  \"updated\": " + System.currentTimeMillis());
+				out.println("}");
+			}
+			Files.move(tmpStatus.toPath(), status.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Status file " + statusFile + " could not be written: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Formats a number of seconds as hours, minutes and seconds
+	 * @param seconds Number of seconds
+	 * @return String - Formatted duration
+	 */
+	private static String formatDuration(long seconds)
+	{
+		return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+}
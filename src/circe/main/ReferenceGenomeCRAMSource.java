@@ -0,0 +1,116 @@
+package circe.main;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.cram.ref.CRAMReferenceSource;
+import ngsep.genome.ReferenceGenome;
+
+/**
+ * CRAM reference source backed by the reference genome already loaded by CIRCE, so the FASTA file is not read twice.
+ * Only the bases of the last requested sequence are kept, so CRAM streams must be sorted by coordinate. CRAM files on disk
+ * are scanned by CRAMAlignmentsIterator, which does not request reference bases.
+ */
+public class ReferenceGenomeCRAMSource implements CRAMReferenceSource
+{
+	//------------------------------------------------------------------------
+	// Attributes
+	//------------------------------------------------------------------------
+
+	/**
+	 * Reference genome of the organism
+	 */
+	private ReferenceGenome refGenome;
+
+	/**
+	 * Name of the last reference sequence requested by the CRAM decoder
+	 */
+	private String cachedSequenceName;
+
+	/**
+	 * Bases of the last reference sequence requested by the CRAM decoder
+	 */
+	private byte[] cachedSequenceBases;
+
+
+	//------------------------------------------------------------------------
+	// Constructor
+	//------------------------------------------------------------------------
+
+	public ReferenceGenomeCRAMSource(ReferenceGenome refGenome)
+	{
+		this.refGenome = refGenome;
+	}
+
+
+	//------------------------------------------------------------------------
+	// Methods
+	//------------------------------------------------------------------------
+
+	/**
+	 * Returns the upper case bases of the requested reference sequence. Only the last requested sequence is kept
+	 * because the containers of a coordinate sorted CRAM file request the sequences one after the other.
+	 * @param sequenceRecord Sequence requested by the CRAM decoder
+	 * @param tryNameVariants If the "chr" prefix and the mitochondrial names must be tried when the name is not found
+	 * @return byte[] - Bases of the sequence or null if the sequence is not part of the reference genome
+	 */
+	@Override
+	public synchronized byte[] getReferenceBases(SAMSequenceRecord sequenceRecord, boolean tryNameVariants)
+	{
+		String sequenceName = sequenceRecord.getSequenceName();
+		if(sequenceName.equals(cachedSequenceName))
+		{
+			return cachedSequenceBases;
+		}
+
+		CharSequence sequence = refGenome.getSequenceCharacters(sequenceName);
+		if(sequence == null && tryNameVariants)
+		{
+			for (String variant : getNameVariants(sequenceName))
+			{
+				sequence = refGenome.getSequenceCharacters(variant);
+				if(sequence != null)
+				{
+					break;
+				}
+			}
+		}
+
+		if(sequence == null)
+		{
+			return null;
+		}
+
+		//Releasing the previous sequence before allocating the new one
+		cachedSequenceBases = null;
+		byte[] bases = new byte[sequence.length()];
+		for (int i = 0; i < bases.length; i++)
+		{
+			bases[i] = (byte) Character.toUpperCase(sequence.charAt(i));
+		}
+
+		cachedSequenceName = sequenceName;
+		cachedSequenceBases = bases;
+		return bases;
+	}
+
+	/**
+	 * Returns the alternative names of a reference sequence commonly used by different genome builds.
+	 * @param sequenceName Name of the sequence in the CRAM header
+	 * @return String[] - Alternative names of the sequence
+	 */
+	private String[] getNameVariants(String sequenceName)
+	{
+		String baseName = sequenceName.startsWith("chr") ? sequenceName.substring(3) : sequenceName;
+
+		if(baseName.equals("M") || baseName.equals("MT"))
+		{
+			return new String[] {"MT", "M", "chrM", "chrMT"};
+		}
+
+		if(baseName.equals(sequenceName))
+		{
+			return new String[] {"chr" + sequenceName};
+		}
+
+		return new String[] {baseName};
+	}
+}